@@ -0,0 +1,29 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+record AggregateContext(Map<AnalyticsJdbcRepository.ChapterKeyRow, Long> recShown,
+                        Map<String, Map<String, Set<String>>> prerequisites) {
+    static AggregateContext load(AnalyticsJdbcRepository repository, Collection<AnalyticsJdbcRepository.ChapterKeyRow> keys,
+                                 Collection<String> courseIds, long recsUpto) {
+        Map<AnalyticsJdbcRepository.ChapterKeyRow, Long> recShown = new HashMap<>();
+        repository.scanRecommendationCounts(keys, recsUpto, r -> recShown.put(r.key(), r.shown()));
+        Map<String, Map<String, Set<String>>> prerequisites = repository.loadPrerequisites(courseIds).stream()
+                .collect(Collectors.groupingBy(AnalyticsJdbcRepository.PrerequisiteRow::courseId,
+                        Collectors.groupingBy(AnalyticsJdbcRepository.PrerequisiteRow::chapterId,
+                                Collectors.mapping(AnalyticsJdbcRepository.PrerequisiteRow::prerequisiteChapterId, Collectors.toSet()))));
+        return new AggregateContext(recShown, prerequisites);
+    }
+
+    AnalyticsModels.AnalyticsAggregate build(AggregateKey key, KeyAccumulator accumulator) {
+        long shown = recShown.getOrDefault(key.chapterKey(), 0L);
+        Set<String> required = prerequisites.getOrDefault(key.courseId(), Map.of()).getOrDefault(key.chapterId(), Set.of());
+        return accumulator.toAggregate(AggregateScopes.STUDENT_CHAPTER, key.studentId(), key.courseId(), key.chapterId(), key.version(), shown, required);
+    }
+}
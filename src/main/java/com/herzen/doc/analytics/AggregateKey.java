@@ -0,0 +1,17 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+
+record AggregateKey(String studentId, String courseId, String chapterId, String version) {
+    static AggregateKey of(String studentId, String courseId, String chapterId, String version) {
+        return new AggregateKey(studentId, courseId, chapterId, normalizeVersion(version));
+    }
+
+    static String normalizeVersion(String version) {
+        return (version == null || version.isBlank()) ? "default" : version;
+    }
+
+    AnalyticsJdbcRepository.ChapterKeyRow chapterKey() {
+        return new AnalyticsJdbcRepository.ChapterKeyRow(studentId, courseId, chapterId);
+    }
+}
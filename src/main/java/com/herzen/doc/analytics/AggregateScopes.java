@@ -0,0 +1,10 @@
+package com.herzen.doc.analytics;
+
+public final class AggregateScopes {
+    public static final String STUDENT_CHAPTER = "student_chapter";
+    public static final String COURSE_VERSION = "course_version";
+    public static final String COURSE_CHAPTER_VERSION = "course_chapter_version";
+    public static final String ALL = "*";
+
+    private AggregateScopes() {}
+}
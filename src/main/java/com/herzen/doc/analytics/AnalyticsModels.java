@@ -5,7 +5,14 @@ import java.util.List;
 import java.util.Map;
 
 public class AnalyticsModels {
-    public record LearningEventIngestRequest(List<EventIn> events) {}
+    public record LearningEventIngestRequest(String studentId,
+                                             String courseId,
+                                             String recommenderVersion,
+                                             List<EventIn> events) {
+        public LearningEventIngestRequest(List<EventIn> events) {
+            this(null, null, null, events);
+        }
+    }
 
     public record EventIn(String studentId,
                           String courseId,
@@ -13,9 +20,36 @@ public class AnalyticsModels {
                           String eventType,
                           Instant ts,
                           String payload,
-                          String recommenderVersion) {}
+                          String recommenderVersion,
+                          String eventId) {
+        public EventIn(String studentId, String courseId, String chapterId, String eventType, Instant ts, String payload, String recommenderVersion) {
+            this(studentId, courseId, chapterId, eventType, ts, payload, recommenderVersion, null);
+        }
 
-    public record LearningEventAck(int accepted, int rejected) {}
+        public EventIn inherit(LearningEventIngestRequest batch) {
+            if (studentId != null && courseId != null && recommenderVersion != null) return this;
+            return new EventIn(
+                    studentId != null ? studentId : batch.studentId(),
+                    courseId != null ? courseId : batch.courseId(),
+                    chapterId,
+                    eventType,
+                    ts,
+                    payload,
+                    recommenderVersion != null ? recommenderVersion : batch.recommenderVersion(),
+                    eventId);
+        }
+    }
+
+    public record LearningEventAck(int accepted, int rejected, int duplicates, int inFlight, int invalid) {}
+
+    public record DedupStats(boolean enabled,
+                             long checked,
+                             long duplicates,
+                             long bloomChecks,
+                             long bloomDuplicates,
+                             int recentEntries,
+                             int bloomBuckets,
+                             long bloomBitsPerBucket) {}
 
     public record AnalyticsAggregate(String scopeType,
                                      String studentId,
@@ -28,9 +62,11 @@ public class AnalyticsModels {
                                      double dropOff,
                                      double prerequisiteViolation,
                                      Instant computedAt,
-                                     Map<String, Double> counters) {}
+                                     Map<String, Double> counters,
+                                     Instant firstOpenAt,
+                                     Instant firstCompleteAt) {}
 
-    public record AnalyticsOverviewResponse(List<AnalyticsAggregate> aggregates) {}
+    public record AnalyticsOverviewResponse(List<AnalyticsAggregate> aggregates, String nextCursor) {}
 
     public record RecommenderComparisonRow(String recommenderVersion,
                                            double avgLearningGain,
@@ -38,11 +74,58 @@ public class AnalyticsModels {
                                            double avgRecommendationAcceptance,
                                            double avgDropOff,
                                            double avgPrerequisiteViolation,
-                                           long sampleSize) {}
+                                           long sampleSize,
+                                           double learningGainCi95,
+                                           double timeToMasteryCi95,
+                                           double recommendationAcceptanceCi95,
+                                           double dropOffCi95,
+                                           double prerequisiteViolationCi95) {}
 
     public record RecommenderComparisonResponse(List<RecommenderComparisonRow> rows) {}
 
+    public record ChapterComparisonRow(String chapterId, RecommenderComparisonRow metrics) {}
+
+    public record ChapterComparisonResponse(String courseId, List<ChapterComparisonRow> rows) {}
+
+    public record CourseStudentsResponse(String courseId, long activeStudents) {}
+
     public record BottleneckRow(String category, String key, long occurrences, String recommendation) {}
 
     public record BottleneckResponse(List<BottleneckRow> bottlenecks) {}
+
+    public record IngestStats(int queued,
+                              int capacity,
+                              String overflowPolicy,
+                              long enqueued,
+                              long rejectedOverflow,
+                              long shed,
+                              long persisted,
+                              long failedBatches,
+                              int retryBatches,
+                              long lost,
+                              long lastDrainMs) {}
+
+    public record RecomputeStats(boolean running,
+                                 long runs,
+                                 long skippedRuns,
+                                 Instant lastStartedAt,
+                                 long lastDurationMs,
+                                 long lastKeys,
+                                 int partitionsDone,
+                                 int partitionsTotal,
+                                 long keysDone) {}
+
+    public record OnlineAggregateStats(boolean enabled, int liveKeys, int dirtyKeys, long flushedKeys) {}
+
+    public record LatencyPercentilesResponse(String courseId,
+                                             String recommenderVersion,
+                                             String metric,
+                                             String fromDay,
+                                             String toDay,
+                                             long samples,
+                                             double p50,
+                                             double p90,
+                                             double p99) {}
+
+    public record CompactionResult(String cutoffDay, int compactedDays, long compactedEvents) {}
 }
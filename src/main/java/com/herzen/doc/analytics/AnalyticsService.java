@@ -1,204 +1,473 @@
 package com.herzen.doc.analytics;
 
+import com.herzen.doc.knowledge.CourseStudentCounter;
 import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
 public class AnalyticsService {
-    private final AnalyticsJdbcRepository repository;
+    private static final String EVENTS_WATERMARK = "learning_events";
+    private static final String RECOMMENDATIONS_WATERMARK = "recommendation_log";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final String TIME_TO_MASTERY = "time_to_mastery";
+    private static final String SESSION_DURATION = "session_duration";
 
-    public AnalyticsService(AnalyticsJdbcRepository repository) {
+    private final AnalyticsJdbcRepository repository;
+    private final CourseStudentCounter studentCounter;
+    private final LearningEventBuffer eventBuffer;
+    private final OnlineAggregates onlineAggregates;
+    private final CourseRollups courseRollups;
+    private final BottleneckSketches bottleneckSketches;
+    private final LearningEventCompactor compactor;
+    private final EventDeduplicator deduplicator;
+    private final int retentionDays;
+    private final boolean scheduledRecomputeEnabled;
+    private final ForkJoinPool recomputePool;
+    private final int studentBuckets;
+    private final IdWatermark eventsWatermark;
+    private final IdWatermark recommendationsWatermark;
+    private final ReentrantLock recomputeLock = new ReentrantLock();
+    private final RecomputeMetrics recomputeMetrics = new RecomputeMetrics();
+
+    public AnalyticsService(AnalyticsJdbcRepository repository,
+                            CourseStudentCounter studentCounter,
+                            LearningEventBuffer eventBuffer,
+                            OnlineAggregates onlineAggregates,
+                            CourseRollups courseRollups,
+                            BottleneckSketches bottleneckSketches,
+                            LearningEventCompactor compactor,
+                            EventDeduplicator deduplicator,
+                            @Value("${analytics.retention.days:0}") int retentionDays,
+                            @Value("${analytics.recompute.enabled:true}") boolean scheduledRecomputeEnabled,
+                            @Value("${analytics.recompute.parallelism:0}") int parallelism,
+                            @Value("${analytics.recompute.student-buckets:16}") int studentBuckets,
+                            @Value("${analytics.recompute.id-gap-grace-ms:120000}") long idGapGraceMs) {
         this.repository = repository;
+        this.studentCounter = studentCounter;
+        this.eventBuffer = eventBuffer;
+        this.onlineAggregates = onlineAggregates;
+        this.courseRollups = courseRollups;
+        this.bottleneckSketches = bottleneckSketches;
+        this.compactor = compactor;
+        this.deduplicator = deduplicator;
+        this.retentionDays = retentionDays;
+        this.scheduledRecomputeEnabled = scheduledRecomputeEnabled;
+        this.recomputePool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.studentBuckets = Math.max(1, studentBuckets);
+        this.eventsWatermark = new IdWatermark(repository::countEventIds, idGapGraceMs);
+        this.recommendationsWatermark = new IdWatermark(repository::countRecommendationIds, idGapGraceMs);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        recomputePool.shutdown();
     }
 
     public AnalyticsModels.LearningEventAck ingest(AnalyticsModels.LearningEventIngestRequest request) {
-        if (request == null || request.events() == null) return new AnalyticsModels.LearningEventAck(0, 0);
-        List<AnalyticsModels.EventIn> accepted = request.events().stream()
-                .filter(Objects::nonNull)
-                .filter(e -> LearningEventTypes.SUPPORTED.contains(e.eventType()))
-                .toList();
-        repository.saveEvents(accepted);
-        return new AnalyticsModels.LearningEventAck(accepted.size(), request.events().size() - accepted.size());
+        if (request == null || request.events() == null) return new AnalyticsModels.LearningEventAck(0, 0, 0, 0, 0);
+        List<AnalyticsModels.EventIn> valid = new ArrayList<>(request.events().size());
+        for (AnalyticsModels.EventIn event : request.events()) {
+            if (event == null) continue;
+            AnalyticsModels.EventIn resolved = event.inherit(request);
+            if (isValid(resolved)) valid.add(resolved);
+        }
+        List<EventDeduplicator.Verdict> verdicts = deduplicator.reserve(valid.stream().map(AnalyticsModels.EventIn::eventId).toList());
+        List<String> acceptedIds = new ArrayList<>();
+        List<String> rejectedIds = new ArrayList<>();
+        int duplicates = 0;
+        int inFlight = 0;
+        try {
+            Set<String> stored = storedAmongBloomHits(valid, verdicts);
+            deduplicator.confirmStored(stored);
+            for (int i = 0; i < valid.size(); i++) {
+                AnalyticsModels.EventIn resolved = valid.get(i);
+                EventDeduplicator.Verdict verdict = verdicts.get(i);
+                if (verdict == EventDeduplicator.Verdict.DUPLICATE
+                        || verdict == EventDeduplicator.Verdict.CHECK && stored.contains(resolved.eventId())) {
+                    duplicates++;
+                } else if (verdict == EventDeduplicator.Verdict.IN_FLIGHT) {
+                    inFlight++;
+                } else {
+                    (eventBuffer.offer(resolved) ? acceptedIds : rejectedIds).add(resolved.eventId());
+                }
+            }
+        } finally {
+            // Ids this request reserved but never handed to the buffer are released, so a failed request
+            // does not leave them in flight for the whole exact window.
+            Set<String> handled = new HashSet<>(acceptedIds);
+            handled.addAll(rejectedIds);
+            List<String> released = new ArrayList<>(rejectedIds);
+            for (int i = 0; i < valid.size(); i++) {
+                EventDeduplicator.Verdict verdict = verdicts.get(i);
+                String eventId = valid.get(i).eventId();
+                if ((verdict == EventDeduplicator.Verdict.NEW || verdict == EventDeduplicator.Verdict.CHECK)
+                        && !handled.contains(eventId)) {
+                    released.add(eventId);
+                }
+            }
+            deduplicator.commit(acceptedIds, released);
+        }
+        return new AnalyticsModels.LearningEventAck(acceptedIds.size(), rejectedIds.size(), duplicates, inFlight,
+                request.events().size() - valid.size());
+    }
+
+    private Set<String> storedAmongBloomHits(List<AnalyticsModels.EventIn> events, List<EventDeduplicator.Verdict> verdicts) {
+        List<String> candidates = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            if (verdicts.get(i) == EventDeduplicator.Verdict.CHECK) candidates.add(events.get(i).eventId());
+        }
+        return candidates.isEmpty() ? Set.of() : repository.findStoredEventIds(candidates);
     }
 
-    @Scheduled(fixedDelayString = "${analytics.recompute.fixed-delay-ms:300000}")
+    public AnalyticsModels.IngestStats ingestStats() {
+        return eventBuffer.stats();
+    }
+
+    public AnalyticsModels.DedupStats dedupStats() {
+        return deduplicator.stats();
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.recompute.fixed-delay-ms:300000}",
+            initialDelayString = "${analytics.recompute.initial-delay-ms:0}")
     public void scheduledRecompute() {
-        recomputeAggregates();
+        if (!scheduledRecomputeEnabled) return;
+        if (!recomputeLock.tryLock()) {
+            recomputeMetrics.skipped();
+            return;
+        }
+        try {
+            recompute(false);
+        } finally {
+            recomputeLock.unlock();
+        }
     }
 
     public void recomputeAggregates() {
-        List<AnalyticsJdbcRepository.EventRow> events = repository.loadEvents();
-        List<AnalyticsJdbcRepository.RecommendationRow> recs = repository.loadRecommendationLog();
+        recomputeAggregates(false);
+    }
 
-        Map<Key, List<AnalyticsJdbcRepository.EventRow>> grouped = events.stream()
-                .filter(e -> e.studentId() != null && e.courseId() != null)
-                .filter(e -> e.chapterId() != null && !e.chapterId().isBlank())
-                .collect(Collectors.groupingBy(e -> new Key(e.studentId(), e.courseId(), e.chapterId(), normalizeVersion(e.recommenderVersion()))));
+    public void recomputeAggregates(boolean full) {
+        recomputeLock.lock();
+        try {
+            recompute(full);
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
 
-        for (var entry : grouped.entrySet()) {
-            Key key = entry.getKey();
-            List<AnalyticsJdbcRepository.EventRow> rows = entry.getValue().stream().sorted(Comparator.comparing(AnalyticsJdbcRepository.EventRow::ts)).toList();
-            repository.upsertAggregate(buildAggregate("student_chapter", key, rows, recs));
+    @Scheduled(fixedDelayString = "${analytics.retention.delay-ms:3600000}",
+            initialDelayString = "${analytics.retention.delay-ms:3600000}")
+    public void scheduledCompaction() {
+        if (!scheduledRecomputeEnabled || retentionDays <= 0 || !recomputeLock.tryLock()) return;
+        try {
+            compact(LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays));
+        } finally {
+            recomputeLock.unlock();
         }
     }
 
-    public AnalyticsModels.AnalyticsOverviewResponse overview(String studentId, String courseId, String chapterId) {
-        return new AnalyticsModels.AnalyticsOverviewResponse(repository.queryAggregates(studentId, courseId, chapterId));
+    public AnalyticsModels.CompactionResult compactExpiredEvents() {
+        if (retentionDays <= 0) return new AnalyticsModels.CompactionResult(null, 0, 0);
+        return compactEventsBefore(LocalDate.now(ZoneOffset.UTC).minusDays(retentionDays));
     }
 
-    public AnalyticsModels.RecommenderComparisonResponse compareByVersion(String courseId) {
-        List<AnalyticsModels.AnalyticsAggregate> rows = repository.loadAllAggregates().stream()
-                .filter(a -> courseId == null || courseId.isBlank() || courseId.equals(a.courseId()))
-                .toList();
-        Map<String, List<AnalyticsModels.AnalyticsAggregate>> byVersion = rows.stream()
-                .collect(Collectors.groupingBy(a -> normalizeVersion(a.recommenderVersion())));
-
-        List<AnalyticsModels.RecommenderComparisonRow> compared = byVersion.entrySet().stream()
-                .map(e -> {
-                    List<AnalyticsModels.AnalyticsAggregate> r = e.getValue();
-                    return new AnalyticsModels.RecommenderComparisonRow(
-                            e.getKey(),
-                            avg(r, AnalyticsModels.AnalyticsAggregate::learningGain),
-                            avgNullable(r, AnalyticsModels.AnalyticsAggregate::timeToMasterySeconds),
-                            avg(r, AnalyticsModels.AnalyticsAggregate::recommendationAcceptance),
-                            avg(r, AnalyticsModels.AnalyticsAggregate::dropOff),
-                            avg(r, AnalyticsModels.AnalyticsAggregate::prerequisiteViolation),
-                            r.size()
-                    );
-                })
-                .sorted(Comparator.comparing(AnalyticsModels.RecommenderComparisonRow::recommenderVersion))
-                .toList();
+    public AnalyticsModels.CompactionResult compactEventsBefore(LocalDate cutoff) {
+        recomputeLock.lock();
+        try {
+            return compact(cutoff);
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
 
-        return new AnalyticsModels.RecommenderComparisonResponse(compared);
+    private AnalyticsModels.CompactionResult compact(LocalDate cutoff) {
+        recompute(false);
+        long uptoId = repository.loadWatermark(EVENTS_WATERMARK);
+        return compactor.compactBefore(cutoff, uptoId);
     }
 
-    public AnalyticsModels.BottleneckResponse bottlenecks(String courseId) {
-        List<AnalyticsJdbcRepository.EventRow> events = repository.loadEvents().stream()
-                .filter(e -> courseId == null || courseId.isBlank() || courseId.equals(e.courseId()))
-                .toList();
+    @Scheduled(fixedDelayString = "${analytics.online.flush-delay-ms:1000}")
+    public void scheduledOnlineFlush() {
+        if (!onlineAggregates.enabled() || !recomputeLock.tryLock()) return;
+        try {
+            onlineAggregates.flush();
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
 
-        Map<String, Long> termClicks = events.stream()
-                .filter(e -> LearningEventTypes.TERM_CLICK.equals(e.eventType()))
-                .map(e -> extractPayloadValue(e.payload(), "term"))
-                .filter(Objects::nonNull)
-                .collect(Collectors.groupingBy(v -> v, Collectors.counting()));
+    public int flushOnlineAggregates() {
+        eventBuffer.flush();
+        recomputeLock.lock();
+        try {
+            return onlineAggregates.flush();
+        } finally {
+            recomputeLock.unlock();
+        }
+    }
 
-        Map<String, Long> chapterOpens = events.stream()
-                .filter(e -> LearningEventTypes.CHAPTER_OPEN.equals(e.eventType()))
-                .collect(Collectors.groupingBy(e -> Optional.ofNullable(e.chapterId()).orElse("unknown"), Collectors.counting()));
+    public AnalyticsModels.OnlineAggregateStats onlineStats() {
+        return onlineAggregates.stats();
+    }
 
-        Map<String, Long> chapterCompletes = events.stream()
-                .filter(e -> LearningEventTypes.CHAPTER_COMPLETE.equals(e.eventType()))
-                .collect(Collectors.groupingBy(e -> Optional.ofNullable(e.chapterId()).orElse("unknown"), Collectors.counting()));
+    public AnalyticsModels.RecomputeStats recomputeStats() {
+        return recomputeMetrics.snapshot();
+    }
 
-        List<AnalyticsModels.BottleneckRow> out = new ArrayList<>();
-        termClicks.entrySet().stream()
-                .filter(e -> e.getValue() >= 3)
-                .forEach(e -> out.add(new AnalyticsModels.BottleneckRow("weak_term_link", e.getKey(), e.getValue(),
-                        "Проверить определение/связи термина и примеры в главе")));
+    private void recompute(boolean full) {
+        recomputeMetrics.start();
+        try {
+            recomputeChanged(full);
+        } finally {
+            recomputeMetrics.finish();
+        }
+    }
 
-        chapterOpens.forEach((chapter, opens) -> {
-            long completes = chapterCompletes.getOrDefault(chapter, 0L);
-            if (opens >= 3 && completes * 1.0 / opens < 0.5) {
-                out.add(new AnalyticsModels.BottleneckRow("dropoff_chapter", chapter, opens - completes,
-                        "Пересмотреть сложность вопросов и explainability для главы"));
-            }
+    private void recomputeChanged(boolean full) {
+        eventBuffer.flush();
+        onlineAggregates.mark();
+        long eventsDone = repository.loadWatermark(EVENTS_WATERMARK);
+        long recsDone = repository.loadWatermark(RECOMMENDATIONS_WATERMARK);
+        long eventsFrom = full ? 0L : eventsDone;
+        long recsFrom = full ? 0L : recsDone;
+        long eventsTo = repository.maxEventId();
+        long recsTo = repository.maxRecommendationId();
+        if (eventsTo <= eventsFrom && recsTo <= recsFrom) return;
+        long eventsSafe = eventsWatermark.safeUpto(eventsDone, eventsTo);
+        long recsSafe = recommendationsWatermark.safeUpto(recsDone, recsTo);
+
+        Set<AnalyticsJdbcRepository.ChapterKeyRow> touched = null;
+        if (eventsFrom > 0 || recsFrom > 0) {
+            touched = new HashSet<>(repository.loadTouchedChapters(eventsFrom, eventsTo, recsFrom, recsTo));
+        }
+
+        Map<AggregateKey, KeyAccumulator> grouped = new HashMap<>();
+        repository.scanEvents(touched, eventsTo, e -> {
+            if (e.chapterId() == null || e.chapterId().isBlank()) return;
+            grouped.computeIfAbsent(AggregateKey.of(e.studentId(), e.courseId(), e.chapterId(), e.recommenderVersion()),
+                    k -> new KeyAccumulator()).add(e.eventType(), e.ts());
+        });
+        repository.scanKeyRollups(touched, r -> {
+            grouped.computeIfAbsent(AggregateKey.of(r.studentId(), r.courseId(), r.chapterId(), r.version()),
+                    k -> new KeyAccumulator()).merge(r);
         });
 
-        return new AnalyticsModels.BottleneckResponse(out.stream()
-                .sorted(Comparator.comparing(AnalyticsModels.BottleneckRow::occurrences).reversed())
-                .toList());
+        AggregateContext context = AggregateContext.load(repository, touched,
+                grouped.keySet().stream().map(AggregateKey::courseId).collect(Collectors.toSet()), recsTo);
+
+        Collection<List<Map.Entry<AggregateKey, KeyAccumulator>>> partitions = grouped.entrySet().stream()
+                .collect(Collectors.groupingBy(e -> new Partition(e.getKey().courseId(),
+                        Math.floorMod(e.getKey().studentId().hashCode(), studentBuckets))))
+                .values();
+        recomputeMetrics.partitions(partitions.size());
+        boolean incremental = touched != null;
+        List<AnalyticsModels.AnalyticsAggregate> previous = Collections.synchronizedList(new ArrayList<>());
+        List<AnalyticsModels.AnalyticsAggregate> current = Collections.synchronizedList(new ArrayList<>());
+        recomputePool.submit(() -> partitions.parallelStream().forEach(partition -> {
+            List<AnalyticsModels.AnalyticsAggregate> aggregates = new ArrayList<>(partition.size());
+            List<AnalyticsJdbcRepository.KeyDayRow> keyDays = new ArrayList<>();
+            for (var entry : partition) {
+                aggregates.add(context.build(entry.getKey(), entry.getValue()));
+                keyDays.addAll(entry.getValue().keyDays(entry.getKey()));
+            }
+            if (incremental) {
+                previous.addAll(courseRollups.previous(aggregates));
+                current.addAll(aggregates);
+            }
+            repository.upsertAggregates(aggregates);
+            repository.upsertKeyDays(keyDays);
+            recomputeMetrics.partitionDone(aggregates.size());
+        })).join();
+        if (incremental) {
+            courseRollups.replace(previous, current);
+        } else {
+            courseRollups.rebuild(grouped.keySet().stream().map(AggregateKey::courseId).collect(Collectors.toSet()));
+        }
+        refreshHistograms(grouped);
+        repository.saveWatermarks(Map.of(EVENTS_WATERMARK, eventsSafe, RECOMMENDATIONS_WATERMARK, recsSafe));
+        onlineAggregates.invalidate(grouped.keySet());
     }
 
-    private AnalyticsModels.AnalyticsAggregate buildAggregate(String scope, Key key,
-                                                              List<AnalyticsJdbcRepository.EventRow> rows,
-                                                              List<AnalyticsJdbcRepository.RecommendationRow> recs) {
-        long opens = count(rows, LearningEventTypes.CHAPTER_OPEN);
-        long completes = count(rows, LearningEventTypes.CHAPTER_COMPLETE);
-        long answerSubmits = count(rows, LearningEventTypes.ANSWER_SUBMIT);
-        long termClicks = count(rows, LearningEventTypes.TERM_CLICK);
-        long acceptances = count(rows, LearningEventTypes.RECOMMENDATION_ACCEPT);
+    private void refreshHistograms(Map<AggregateKey, KeyAccumulator> grouped) {
+        Set<String> courses = new HashSet<>();
+        Set<String> days = new HashSet<>();
+        Set<CourseDay> touchedDays = new HashSet<>();
+        grouped.forEach((key, accumulator) -> {
+            courses.add(key.courseId());
+            for (String day : accumulator.days()) {
+                days.add(day);
+                touchedDays.add(new CourseDay(key.courseId(), day));
+            }
+        });
+        Map<HistogramKey, LogHistogram> histograms = new HashMap<>();
+        repository.scanKeyDays(courses, days, row -> {
+            if (!touchedDays.contains(new CourseDay(row.courseId(), row.day()))) return;
+            if (row.sessionSeconds() > 0) {
+                histograms.computeIfAbsent(new HistogramKey(row.courseId(), row.version(), row.day(), SESSION_DURATION), k -> new LogHistogram())
+                        .record(row.sessionSeconds());
+            }
+            if (row.masterySeconds() != null) {
+                histograms.computeIfAbsent(new HistogramKey(row.courseId(), row.version(), row.day(), TIME_TO_MASTERY), k -> new LogHistogram())
+                        .record(row.masterySeconds());
+            }
+        });
+        repository.upsertHistograms(histograms.entrySet().stream()
+                .map(e -> new AnalyticsJdbcRepository.HistogramRow(e.getKey().courseId(), e.getKey().version(), e.getKey().day(), e.getKey().metric(),
+                        e.getValue().count(), e.getValue().encode()))
+                .toList());
+    }
 
-        double learningGain = opens == 0 ? 0.0 : ((double) completes / opens);
-        double dropOff = opens == 0 ? 0.0 : ((double) Math.max(opens - completes, 0) / opens);
+    public AnalyticsModels.LatencyPercentilesResponse latency(String courseId, String version, String metric, int days) {
+        if (!TIME_TO_MASTERY.equals(metric) && !SESSION_DURATION.equals(metric)) {
+            throw new IllegalArgumentException("Unknown latency metric: " + metric);
+        }
+        String versionFilter = (version == null || version.isBlank()) ? null : version;
+        LocalDate to = LocalDate.now(ZoneOffset.UTC);
+        LocalDate from = to.minusDays(Math.max(1, days) - 1L);
+        LogHistogram merged = new LogHistogram();
+        repository.loadHistograms(courseId, versionFilter, metric, from.toString(), to.toString())
+                .forEach(row -> merged.merge(LogHistogram.parse(row.buckets())));
+        return new AnalyticsModels.LatencyPercentilesResponse(courseId, versionFilter, metric, from.toString(), to.toString(),
+                merged.count(), merged.quantile(0.5), merged.quantile(0.9), merged.quantile(0.99));
+    }
 
-        Instant firstOpen = firstTs(rows, LearningEventTypes.CHAPTER_OPEN);
-        Instant firstComplete = firstTs(rows, LearningEventTypes.CHAPTER_COMPLETE);
-        Double timeToMastery = (firstOpen != null && firstComplete != null && !firstComplete.isBefore(firstOpen))
-                ? (double) (firstComplete.getEpochSecond() - firstOpen.getEpochSecond())
-                : null;
+    public AnalyticsModels.AnalyticsOverviewResponse overview(String studentId, String courseId, String chapterId) {
+        return overview(studentId, courseId, chapterId, null, DEFAULT_PAGE_SIZE);
+    }
 
-        long recShown = recs.stream().filter(r -> r.studentId().equals(key.studentId()) && r.courseId().equals(key.courseId())
-                && Objects.equals(r.chapterId(), key.chapterId())).count();
-        double recommendationAcceptance = recShown == 0 ? 0.0 : (double) acceptances / recShown;
+    public AnalyticsModels.AnalyticsOverviewResponse overview(String studentId, String courseId, String chapterId,
+                                                              String cursor, int limit) {
+        int pageSize = Math.min(Math.max(1, limit), MAX_PAGE_SIZE);
+        List<AnalyticsModels.AnalyticsAggregate> page = repository.queryAggregatesPage(AggregateScopes.STUDENT_CHAPTER,
+                studentId, courseId, chapterId, decodeCursor(cursor), pageSize);
+        String next = page.size() < pageSize ? null : encodeCursor(page.get(page.size() - 1));
+        return new AnalyticsModels.AnalyticsOverviewResponse(page, next);
+    }
 
-        double prereqViolation = prerequisiteViolationRate(key, rows);
+    public void exportOverview(String studentId, String courseId, String chapterId,
+                               Consumer<AnalyticsModels.AnalyticsAggregate> consumer) {
+        repository.scanAggregates(AggregateScopes.STUDENT_CHAPTER, studentId, courseId, chapterId, consumer);
+    }
 
-        Map<String, Double> counters = Map.of(
-                "chapter_open", (double) opens,
-                "chapter_complete", (double) completes,
-                "answer_submit", (double) answerSubmits,
-                "term_click", (double) termClicks,
-                "recommendation_accept", (double) acceptances,
-                "recommendation_shown", (double) recShown
-        );
+    private String encodeCursor(AnalyticsModels.AnalyticsAggregate last) {
+        String raw = String.join("\n", last.studentId(), last.courseId(), last.chapterId(), last.recommenderVersion());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
 
-        return new AnalyticsModels.AnalyticsAggregate(scope, key.studentId(), key.courseId(), key.chapterId(), key.version(),
-                learningGain, timeToMastery, recommendationAcceptance, dropOff, prereqViolation, Instant.now(), counters);
+    private AnalyticsJdbcRepository.AggregateCursor decodeCursor(String cursor) {
+        if (cursor == null || cursor.isBlank()) return null;
+        String[] parts;
+        try {
+            parts = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split("\n", -1);
+        } catch (IllegalArgumentException e) {
+            parts = new String[0];
+        }
+        if (parts.length != 4) throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        return new AnalyticsJdbcRepository.AggregateCursor(parts[0], parts[1], parts[2], parts[3]);
     }
 
-    private double prerequisiteViolationRate(Key key, List<AnalyticsJdbcRepository.EventRow> rows) {
-        if (key.chapterId() == null) return 0.0;
-        List<AnalyticsJdbcRepository.PrerequisiteRow> prereq = repository.loadPrerequisites(key.courseId());
-        Set<String> req = prereq.stream()
-                .filter(p -> p.chapterId().equals(key.chapterId()))
-                .map(AnalyticsJdbcRepository.PrerequisiteRow::prerequisiteChapterId)
-                .collect(Collectors.toSet());
-        if (req.isEmpty()) return 0.0;
+    public AnalyticsModels.RecommenderComparisonResponse compareByVersion(String courseId) {
+        String course = (courseId == null || courseId.isBlank()) ? null : courseId;
+        Map<String, RollupAccumulator> byVersion = new TreeMap<>();
+        for (AnalyticsModels.AnalyticsAggregate rollup : repository.loadAggregates(AggregateScopes.COURSE_VERSION, course)) {
+            byVersion.computeIfAbsent(normalizeVersion(rollup.recommenderVersion()), v -> new RollupAccumulator())
+                    .merge(RollupAccumulator.fromCounters(rollup.counters()));
+        }
+        return new AnalyticsModels.RecommenderComparisonResponse(byVersion.entrySet().stream()
+                .map(e -> e.getValue().toComparison(e.getKey()))
+                .toList());
+    }
 
-        Set<String> completedBefore = rows.stream()
-                .filter(r -> LearningEventTypes.CHAPTER_COMPLETE.equals(r.eventType()))
-                .map(AnalyticsJdbcRepository.EventRow::chapterId)
-                .filter(Objects::nonNull)
-                .collect(Collectors.toSet());
+    public AnalyticsModels.ChapterComparisonResponse compareChapters(String courseId) {
+        List<AnalyticsModels.ChapterComparisonRow> rows = repository.loadAggregates(AggregateScopes.COURSE_CHAPTER_VERSION, courseId).stream()
+                .map(r -> new AnalyticsModels.ChapterComparisonRow(r.chapterId(),
+                        RollupAccumulator.fromCounters(r.counters()).toComparison(r.recommenderVersion())))
+                .sorted(Comparator.comparing(AnalyticsModels.ChapterComparisonRow::chapterId)
+                        .thenComparing(r -> r.metrics().recommenderVersion()))
+                .toList();
+        return new AnalyticsModels.ChapterComparisonResponse(courseId, rows);
+    }
 
-        long violations = req.stream().filter(r -> !completedBefore.contains(r)).count();
-        return (double) violations / req.size();
+    public AnalyticsModels.CourseStudentsResponse courseStudents(String courseId) {
+        return new AnalyticsModels.CourseStudentsResponse(courseId, studentCounter.studentCount(courseId));
     }
 
-    private String normalizeVersion(String version) {
-        return (version == null || version.isBlank()) ? "default" : version;
+    public AnalyticsModels.BottleneckResponse bottlenecks(String courseId) {
+        return bottlenecks(courseId, false);
     }
 
-    private long count(List<AnalyticsJdbcRepository.EventRow> rows, String eventType) {
-        return rows.stream().filter(r -> eventType.equals(r.eventType())).count();
+    public AnalyticsModels.BottleneckResponse bottlenecks(String courseId, boolean exact) {
+        return bottlenecks(courseId, exact, 0);
     }
 
-    private Instant firstTs(List<AnalyticsJdbcRepository.EventRow> rows, String eventType) {
-        return rows.stream().filter(r -> eventType.equals(r.eventType())).map(AnalyticsJdbcRepository.EventRow::ts).min(Comparator.naturalOrder()).orElse(null);
+    public AnalyticsModels.BottleneckResponse bottlenecks(String courseId, boolean exact, int days) {
+        if (days > 0) {
+            BottleneckSummary summary = new BottleneckSummary(0);
+            repository.scanCourseEvents(courseId, BottleneckSketches.EVENT_TYPES, LocalDate.now(ZoneOffset.UTC).minusDays(days - 1L),
+                    e -> summary.add(e.chapterId(), e.eventType(), e.termKey()));
+            return toBottlenecks(summary);
+        }
+        if (exact || courseId == null || courseId.isBlank()) {
+            BottleneckSummary summary = new BottleneckSummary(0);
+            repository.scanCourseRollups(courseId, r -> summary.addRollup(r.eventType(), r.dimensionKey(), r.occurrences()));
+            repository.scanCourseEvents(courseId, BottleneckSketches.EVENT_TYPES, null,
+                    e -> summary.add(e.chapterId(), e.eventType(), e.termKey()));
+            return toBottlenecks(summary);
+        }
+        if (!bottleneckSketches.tracks(courseId)) {
+            eventBuffer.exclusive(() -> bottleneckSketches.seed(courseId));
+        }
+        return bottleneckSketches.read(courseId, this::toBottlenecks);
     }
 
-    private double avg(List<AnalyticsModels.AnalyticsAggregate> rows, java.util.function.ToDoubleFunction<AnalyticsModels.AnalyticsAggregate> fn) {
-        return rows.stream().mapToDouble(fn).average().orElse(0.0);
+    private AnalyticsModels.BottleneckResponse toBottlenecks(BottleneckSummary summary) {
+        Map<String, Long> chapterCompletes = summary.chapterCompletes();
+        List<AnalyticsModels.BottleneckRow> out = new ArrayList<>();
+        summary.termClicks().entrySet().stream()
+                .filter(e -> e.getValue() >= 3)
+                .forEach(e -> out.add(new AnalyticsModels.BottleneckRow("weak_term_link", e.getKey(), e.getValue(),
+                        "Проверить определение/связи термина и примеры в главе")));
+
+        summary.chapterOpens().forEach((chapter, opens) -> {
+            long completes = chapterCompletes.getOrDefault(chapter, 0L);
+            if (opens >= 3 && completes * 1.0 / opens < 0.5) {
+                out.add(new AnalyticsModels.BottleneckRow("dropoff_chapter", chapter, opens - completes,
+                        "Пересмотреть сложность вопросов и explainability для главы"));
+            }
+        });
+
+        return new AnalyticsModels.BottleneckResponse(out.stream()
+                .sorted(Comparator.comparing(AnalyticsModels.BottleneckRow::occurrences).reversed())
+                .toList());
     }
 
-    private double avgNullable(List<AnalyticsModels.AnalyticsAggregate> rows, java.util.function.Function<AnalyticsModels.AnalyticsAggregate, Double> fn) {
-        return rows.stream().map(fn).filter(Objects::nonNull).mapToDouble(Double::doubleValue).average().orElse(0.0);
+    private boolean isValid(AnalyticsModels.EventIn event) {
+        return event.studentId() != null && !event.studentId().isBlank()
+                && event.courseId() != null && !event.courseId().isBlank()
+                && event.eventType() != null && LearningEventTypes.SUPPORTED.contains(event.eventType());
     }
 
-    private String extractPayloadValue(String payload, String key) {
-        if (payload == null) return null;
-        for (String part : payload.split(",")) {
-            String p = part.trim();
-            if (p.startsWith(key + "=")) return p.substring((key + "=").length());
-        }
-        return null;
+    private String normalizeVersion(String version) {
+        return AggregateKey.normalizeVersion(version);
     }
 
-    private record Key(String studentId, String courseId, String chapterId, String version) {}
+    private record Partition(String courseId, int studentBucket) {}
+
+    private record CourseDay(String courseId, String day) {}
+
+    private record HistogramKey(String courseId, String version, String day, String metric) {}
 }
@@ -0,0 +1,57 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+@Component
+public class BottleneckSketches {
+    static final Set<String> EVENT_TYPES = Set.of(
+            LearningEventTypes.TERM_CLICK, LearningEventTypes.CHAPTER_OPEN, LearningEventTypes.CHAPTER_COMPLETE);
+
+    private final AnalyticsJdbcRepository repository;
+    private final int topK;
+    private final Map<String, BottleneckSummary> courses = new ConcurrentHashMap<>();
+
+    public BottleneckSketches(AnalyticsJdbcRepository repository,
+                              @Value("${analytics.bottlenecks.top-k:256}") int topK) {
+        this.repository = repository;
+        this.topK = Math.max(1, topK);
+    }
+
+    boolean tracks(String courseId) {
+        return courses.containsKey(courseId);
+    }
+
+    void seed(String courseId) {
+        if (courses.containsKey(courseId)) return;
+        BottleneckSummary summary = new BottleneckSummary(topK);
+        repository.scanCourseRollups(courseId, r -> summary.addRollup(r.eventType(), r.dimensionKey(), r.occurrences()));
+        repository.scanCourseEvents(courseId, EVENT_TYPES, null, e -> summary.add(e.chapterId(), e.eventType(), e.termKey()));
+        courses.put(courseId, summary);
+    }
+
+    void apply(List<AnalyticsModels.EventIn> batch) {
+        for (AnalyticsModels.EventIn event : batch) {
+            if (!EVENT_TYPES.contains(event.eventType())) continue;
+            BottleneckSummary summary = courses.get(event.courseId());
+            if (summary == null) continue;
+            synchronized (summary) {
+                summary.add(event.chapterId(), event.eventType(), LearningEventTypes.payloadValue(event.payload(), "term"));
+            }
+        }
+    }
+
+    <T> T read(String courseId, Function<BottleneckSummary, T> reader) {
+        BottleneckSummary summary = courses.get(courseId);
+        synchronized (summary) {
+            return reader.apply(summary);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.herzen.doc.analytics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+class BottleneckSummary {
+    private final int topK;
+    private final Map<String, long[]> termCounters = new HashMap<>();
+    private final Map<String, Long> chapterOpens = new HashMap<>();
+    private final Map<String, Long> chapterCompletes = new HashMap<>();
+
+    BottleneckSummary(int topK) {
+        this.topK = topK;
+    }
+
+    void add(String chapterId, String eventType, String term) {
+        switch (eventType) {
+            case LearningEventTypes.TERM_CLICK -> {
+                if (term != null) addTerm(term, 1);
+            }
+            case LearningEventTypes.CHAPTER_OPEN -> chapterOpens.merge(Optional.ofNullable(chapterId).orElse("unknown"), 1L, Long::sum);
+            case LearningEventTypes.CHAPTER_COMPLETE -> chapterCompletes.merge(Optional.ofNullable(chapterId).orElse("unknown"), 1L, Long::sum);
+            default -> {
+            }
+        }
+    }
+
+    void addRollup(String eventType, String dimensionKey, long occurrences) {
+        switch (eventType) {
+            case LearningEventTypes.TERM_CLICK -> addTerm(dimensionKey, occurrences);
+            case LearningEventTypes.CHAPTER_OPEN -> chapterOpens.merge(dimensionKey, occurrences, Long::sum);
+            case LearningEventTypes.CHAPTER_COMPLETE -> chapterCompletes.merge(dimensionKey, occurrences, Long::sum);
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Guaranteed click counts: a bounded summary subtracts the count a term inherited when it replaced an
+     * evicted one, so a term seen once right after an eviction is not inflated past the threshold.
+     */
+    Map<String, Long> termClicks() {
+        Map<String, Long> out = new HashMap<>(termCounters.size());
+        termCounters.forEach((term, counter) -> out.put(term, counter[0] - counter[1]));
+        return out;
+    }
+
+    Map<String, Long> chapterOpens() {
+        return new HashMap<>(chapterOpens);
+    }
+
+    Map<String, Long> chapterCompletes() {
+        return new HashMap<>(chapterCompletes);
+    }
+
+    private void addTerm(String term, long occurrences) {
+        long[] counter = termCounters.get(term);
+        if (counter != null) {
+            counter[0] += occurrences;
+            return;
+        }
+        if (topK <= 0 || termCounters.size() < topK) {
+            termCounters.put(term, new long[]{occurrences, 0});
+            return;
+        }
+        String evicted = null;
+        long min = Long.MAX_VALUE;
+        for (var e : termCounters.entrySet()) {
+            if (e.getValue()[0] < min) {
+                min = e.getValue()[0];
+                evicted = e.getKey();
+            }
+        }
+        termCounters.remove(evicted);
+        termCounters.put(term, new long[]{min + occurrences, min});
+    }
+}
@@ -0,0 +1,81 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maintains the course_version and course_chapter_version rollups over student_chapter aggregates.
+ * Rewriting a set of student_chapter rows takes the old rows out of the stored Welford state and adds
+ * the new ones, so the cost follows the number of rewritten rows rather than the size of the course.
+ */
+@Component
+class CourseRollups {
+    private final AnalyticsJdbcRepository repository;
+
+    CourseRollups(AnalyticsJdbcRepository repository) {
+        this.repository = repository;
+    }
+
+    /** Stored rows that a following {@link #replace} call is about to overwrite. */
+    List<AnalyticsModels.AnalyticsAggregate> previous(List<AnalyticsModels.AnalyticsAggregate> rows) {
+        return rows.isEmpty() ? List.of() : repository.loadStoredAggregates(rows);
+    }
+
+    /** Applies the change from {@code previous} to {@code current} student_chapter rows to the stored rollups. */
+    void replace(List<AnalyticsModels.AnalyticsAggregate> previous, List<AnalyticsModels.AnalyticsAggregate> current) {
+        if (previous.isEmpty() && current.isEmpty()) return;
+        Set<String> courses = new HashSet<>();
+        previous.forEach(a -> courses.add(a.courseId()));
+        current.forEach(a -> courses.add(a.courseId()));
+
+        Map<AggregateKey, RollupAccumulator> rollups = new HashMap<>();
+        for (String scope : List.of(AggregateScopes.COURSE_VERSION, AggregateScopes.COURSE_CHAPTER_VERSION)) {
+            repository.scanAggregates(scope, courses, a -> rollups.put(
+                    new AggregateKey(AggregateScopes.ALL, a.courseId(), a.chapterId(), a.recommenderVersion()),
+                    RollupAccumulator.fromCounters(a.counters())));
+        }
+        Set<AggregateKey> changed = new HashSet<>();
+        for (AnalyticsModels.AnalyticsAggregate a : previous) {
+            for (AggregateKey key : keys(a)) {
+                rollups.computeIfAbsent(key, k -> new RollupAccumulator()).remove(a);
+                changed.add(key);
+            }
+        }
+        for (AnalyticsModels.AnalyticsAggregate a : current) {
+            for (AggregateKey key : keys(a)) {
+                rollups.computeIfAbsent(key, k -> new RollupAccumulator()).add(a);
+                changed.add(key);
+            }
+        }
+        repository.upsertAggregates(changed.stream().map(key -> toAggregate(key, rollups.get(key))).toList());
+    }
+
+    /** Re-folds the rollups of the given courses from every stored student_chapter row. */
+    void rebuild(Set<String> courses) {
+        Map<AggregateKey, RollupAccumulator> rollups = new HashMap<>();
+        repository.scanAggregates(AggregateScopes.STUDENT_CHAPTER, courses, a -> {
+            for (AggregateKey key : keys(a)) rollups.computeIfAbsent(key, k -> new RollupAccumulator()).add(a);
+        });
+        repository.upsertAggregates(rollups.entrySet().stream().map(e -> toAggregate(e.getKey(), e.getValue())).toList());
+    }
+
+    private static List<AggregateKey> keys(AnalyticsModels.AnalyticsAggregate a) {
+        List<AggregateKey> keys = new ArrayList<>(2);
+        keys.add(new AggregateKey(AggregateScopes.ALL, a.courseId(), AggregateScopes.ALL, a.recommenderVersion()));
+        keys.add(new AggregateKey(AggregateScopes.ALL, a.courseId(), a.chapterId(), a.recommenderVersion()));
+        return keys;
+    }
+
+    private static AnalyticsModels.AnalyticsAggregate toAggregate(AggregateKey key, RollupAccumulator rollup) {
+        return rollup.toAggregate(AggregateScopes.ALL.equals(key.chapterId())
+                ? AggregateScopes.COURSE_VERSION
+                : AggregateScopes.COURSE_CHAPTER_VERSION, key);
+    }
+}
@@ -0,0 +1,206 @@
+package com.herzen.doc.analytics;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Component
+public class EventDeduplicator {
+    private final boolean enabled;
+    private final long exactWindowMs;
+    private final int exactMaxEntries;
+    private final long bucketMs;
+    private final BloomBucket[] buckets;
+    private final Map<String, Seen> recent = new LinkedHashMap<>();
+
+    private long checked;
+    private long duplicates;
+    private long bloomChecks;
+    private long bloomDuplicates;
+
+    public EventDeduplicator(@Value("${analytics.dedup.enabled:true}") boolean enabled,
+                             @Value("${analytics.dedup.exact-window-ms:120000}") long exactWindowMs,
+                             @Value("${analytics.dedup.exact-max-entries:200000}") int exactMaxEntries,
+                             @Value("${analytics.dedup.bloom-window-ms:3600000}") long bloomWindowMs,
+                             @Value("${analytics.dedup.bloom-buckets:6}") int bloomBuckets,
+                             @Value("${analytics.dedup.expected-per-bucket:200000}") int expectedPerBucket,
+                             @Value("${analytics.dedup.false-positive-rate:0.0001}") double falsePositiveRate) {
+        this.enabled = enabled;
+        this.exactWindowMs = Math.max(1, exactWindowMs);
+        this.exactMaxEntries = Math.max(1, exactMaxEntries);
+        int count = enabled ? Math.max(1, bloomBuckets) : 0;
+        this.bucketMs = Math.max(1, bloomWindowMs / Math.max(1, bloomBuckets));
+        this.buckets = new BloomBucket[count];
+        for (int i = 0; i < count; i++) {
+            buckets[i] = new BloomBucket(Math.max(1, expectedPerBucket), falsePositiveRate);
+        }
+    }
+
+    public synchronized List<Verdict> reserve(List<String> eventIds) {
+        List<Verdict> verdicts = new ArrayList<>(eventIds.size());
+        long now = System.currentTimeMillis();
+        if (enabled) expire(now);
+        Set<String> batch = new HashSet<>();
+        for (String eventId : eventIds) {
+            if (enabled && tracked(eventId) && !batch.add(eventId)) {
+                checked++;
+                duplicates++;
+                verdicts.add(Verdict.DUPLICATE);
+            } else {
+                verdicts.add(reserve(eventId, now));
+            }
+        }
+        return verdicts;
+    }
+
+    public synchronized void commit(List<String> acceptedIds, List<String> rejectedIds) {
+        if (!enabled) return;
+        long now = System.currentTimeMillis();
+        for (String eventId : acceptedIds) {
+            if (!tracked(eventId)) continue;
+            recent.remove(eventId);
+            recent.put(eventId, new Seen(now, true));
+            long h1 = hash(eventId);
+            bucket(now).add(h1, secondHash(h1));
+        }
+        for (String eventId : rejectedIds) {
+            if (!tracked(eventId)) continue;
+            Seen seen = recent.get(eventId);
+            if (seen != null && !seen.accepted()) recent.remove(eventId);
+        }
+        expire(now);
+    }
+
+    public synchronized void confirmStored(Collection<String> storedIds) {
+        long now = System.currentTimeMillis();
+        for (String eventId : storedIds) {
+            duplicates++;
+            bloomDuplicates++;
+            recent.remove(eventId);
+            recent.put(eventId, new Seen(now, true));
+        }
+    }
+
+    public synchronized AnalyticsModels.DedupStats stats() {
+        expire(System.currentTimeMillis());
+        return new AnalyticsModels.DedupStats(enabled, checked, duplicates, bloomChecks, bloomDuplicates, recent.size(),
+                buckets.length, buckets.length == 0 ? 0 : buckets[0].bits.length * 64L);
+    }
+
+    private Verdict reserve(String eventId, long now) {
+        if (!enabled || !tracked(eventId)) return Verdict.NEW;
+        checked++;
+        Seen seen = recent.get(eventId);
+        if (seen != null) {
+            if (!seen.accepted()) return Verdict.IN_FLIGHT;
+            duplicates++;
+            return Verdict.DUPLICATE;
+        }
+        recent.put(eventId, new Seen(now, false));
+        long h1 = hash(eventId);
+        if (mightContain(h1, secondHash(h1), now)) {
+            bloomChecks++;
+            return Verdict.CHECK;
+        }
+        return Verdict.NEW;
+    }
+
+    private static boolean tracked(String eventId) {
+        return eventId != null && !eventId.isBlank();
+    }
+
+    private void expire(long now) {
+        Iterator<Seen> it = recent.values().iterator();
+        while (it.hasNext()) {
+            Seen seen = it.next();
+            if (recent.size() <= exactMaxEntries && now - seen.atMs() < exactWindowMs) break;
+            it.remove();
+        }
+    }
+
+    private boolean mightContain(long h1, long h2, long now) {
+        long epoch = now / bucketMs;
+        for (BloomBucket bucket : buckets) {
+            if (bucket.epoch > epoch - buckets.length && bucket.mightContain(h1, h2)) return true;
+        }
+        return false;
+    }
+
+    private BloomBucket bucket(long now) {
+        long epoch = now / bucketMs;
+        BloomBucket bucket = buckets[(int) Math.floorMod(epoch, (long) buckets.length)];
+        if (bucket.epoch != epoch) bucket.reset(epoch);
+        return bucket;
+    }
+
+    private static long hash(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    private static long secondHash(long h1) {
+        return mix(h1 ^ 0x9E3779B97F4A7C15L) | 1L;
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * {@code CHECK} is a Bloom filter hit for an id that is no longer in the exact window: the id is
+     * reserved like {@code NEW}, but the caller must look it up in storage before dropping the event.
+     */
+    public enum Verdict { NEW, DUPLICATE, IN_FLIGHT, CHECK }
+
+    private record Seen(long atMs, boolean accepted) {}
+
+    private static final class BloomBucket {
+        private final long[] bits;
+        private final long size;
+        private final int hashes;
+        private long epoch = Long.MIN_VALUE;
+
+        BloomBucket(int expected, double falsePositiveRate) {
+            double p = Math.min(0.5, Math.max(1e-9, falsePositiveRate));
+            long m = (long) Math.ceil(-expected * Math.log(p) / (Math.log(2) * Math.log(2)));
+            this.bits = new long[(int) Math.max(1, (m + 63) / 64)];
+            this.size = bits.length * 64L;
+            this.hashes = Math.max(1, (int) Math.round((double) size / expected * Math.log(2)));
+        }
+
+        boolean mightContain(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, size);
+                if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        void add(long h1, long h2) {
+            for (int i = 0; i < hashes; i++) {
+                long bit = Math.floorMod(h1 + i * h2, size);
+                bits[(int) (bit >>> 6)] |= 1L << bit;
+            }
+        }
+
+        void reset(long epoch) {
+            Arrays.fill(bits, 0L);
+            this.epoch = epoch;
+        }
+    }
+}
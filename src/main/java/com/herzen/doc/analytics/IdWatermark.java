@@ -0,0 +1,52 @@
+package com.herzen.doc.analytics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Decides how far an auto-increment id range can be marked as processed. {@code MAX(id)} can run ahead
+ * of rows whose inserting transaction has not committed yet, so the watermark stops just below the first
+ * missing id. A missing id that stays missing for longer than the grace period is treated as a hole left
+ * by a rolled-back insert and skipped.
+ */
+class IdWatermark {
+    private final IdCounter counter;
+    private final long graceMs;
+    private final Map<Long, Long> missingSince = new HashMap<>();
+
+    IdWatermark(IdCounter counter, long graceMs) {
+        this.counter = counter;
+        this.graceMs = Math.max(0, graceMs);
+    }
+
+    long safeUpto(long from, long to) {
+        long now = System.currentTimeMillis();
+        missingSince.keySet().removeIf(id -> id <= from);
+        long cursor = from;
+        while (cursor < to) {
+            long missing = firstMissing(cursor, to);
+            if (missing < 0) break;
+            long since = missingSince.computeIfAbsent(missing, id -> now);
+            if (now - since < graceMs) return missing - 1;
+            cursor = missing;
+        }
+        return to;
+    }
+
+    private long firstMissing(long after, long upto) {
+        if (counter.count(after, upto) == upto - after) return -1;
+        long complete = after;
+        long gapped = upto;
+        while (gapped - complete > 1) {
+            long mid = complete + (gapped - complete) / 2;
+            if (counter.count(after, mid) == mid - after) complete = mid;
+            else gapped = mid;
+        }
+        return gapped;
+    }
+
+    @FunctionalInterface
+    interface IdCounter {
+        long count(long afterId, long uptoId);
+    }
+}
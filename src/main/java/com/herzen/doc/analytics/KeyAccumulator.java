@@ -0,0 +1,133 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class KeyAccumulator {
+    private long opens;
+    private long completes;
+    private long answerSubmits;
+    private long termClicks;
+    private long acceptances;
+    private Instant firstOpen;
+    private Instant firstComplete;
+    private final Map<String, long[]> dailySpans = new HashMap<>();
+
+    void add(String eventType, Instant ts) {
+        long epoch = ts.getEpochSecond();
+        dailySpans.merge(day(ts), new long[]{epoch, epoch}, (a, b) -> new long[]{Math.min(a[0], b[0]), Math.max(a[1], b[1])});
+        switch (eventType) {
+            case LearningEventTypes.CHAPTER_OPEN -> {
+                opens++;
+                if (firstOpen == null || ts.isBefore(firstOpen)) firstOpen = ts;
+            }
+            case LearningEventTypes.CHAPTER_COMPLETE -> {
+                completes++;
+                if (firstComplete == null || ts.isBefore(firstComplete)) firstComplete = ts;
+            }
+            case LearningEventTypes.ANSWER_SUBMIT -> answerSubmits++;
+            case LearningEventTypes.TERM_CLICK -> termClicks++;
+            case LearningEventTypes.RECOMMENDATION_ACCEPT -> acceptances++;
+            default -> {
+            }
+        }
+    }
+
+    void merge(AnalyticsJdbcRepository.KeyRollupRow rollup) {
+        opens += rollup.opens();
+        completes += rollup.completes();
+        answerSubmits += rollup.answerSubmits();
+        termClicks += rollup.termClicks();
+        acceptances += rollup.acceptances();
+        firstOpen = earliest(firstOpen, rollup.firstOpenMs());
+        firstComplete = earliest(firstComplete, rollup.firstCompleteMs());
+    }
+
+    static KeyAccumulator restore(AnalyticsModels.AnalyticsAggregate aggregate) {
+        KeyAccumulator accumulator = new KeyAccumulator();
+        Map<String, Double> counters = aggregate.counters();
+        accumulator.opens = counter(counters, LearningEventTypes.CHAPTER_OPEN);
+        accumulator.completes = counter(counters, LearningEventTypes.CHAPTER_COMPLETE);
+        accumulator.answerSubmits = counter(counters, LearningEventTypes.ANSWER_SUBMIT);
+        accumulator.termClicks = counter(counters, LearningEventTypes.TERM_CLICK);
+        accumulator.acceptances = counter(counters, LearningEventTypes.RECOMMENDATION_ACCEPT);
+        accumulator.firstOpen = aggregate.firstOpenAt();
+        accumulator.firstComplete = aggregate.firstCompleteAt();
+        return accumulator;
+    }
+
+    private static long counter(Map<String, Double> counters, String name) {
+        Double value = counters == null ? null : counters.get(name);
+        return value == null ? 0L : value.longValue();
+    }
+
+    AnalyticsJdbcRepository.KeyRollupRow toRollup(AggregateKey key) {
+        return new AnalyticsJdbcRepository.KeyRollupRow(key.studentId(), key.courseId(), key.chapterId(), key.version(),
+                opens, completes, answerSubmits, termClicks, acceptances,
+                firstOpen == null ? null : firstOpen.toEpochMilli(),
+                firstComplete == null ? null : firstComplete.toEpochMilli());
+    }
+
+    private static Instant earliest(Instant current, Long candidateMs) {
+        if (candidateMs == null) return current;
+        Instant candidate = Instant.ofEpochMilli(candidateMs);
+        return current == null || candidate.isBefore(current) ? candidate : current;
+    }
+
+    List<AnalyticsJdbcRepository.KeyDayRow> keyDays(AggregateKey key) {
+        Long mastery = masterySeconds();
+        String masteryDay = mastery == null ? null : day(firstComplete);
+        List<AnalyticsJdbcRepository.KeyDayRow> rows = new ArrayList<>(dailySpans.size());
+        dailySpans.forEach((day, span) -> rows.add(new AnalyticsJdbcRepository.KeyDayRow(
+                key.studentId(), key.courseId(), key.chapterId(), key.version(), day,
+                span[1] - span[0], day.equals(masteryDay) ? mastery : null)));
+        return rows;
+    }
+
+    Set<String> days() {
+        return dailySpans.keySet();
+    }
+
+    private Long masterySeconds() {
+        return (firstOpen != null && firstComplete != null && !firstComplete.isBefore(firstOpen))
+                ? firstComplete.getEpochSecond() - firstOpen.getEpochSecond()
+                : null;
+    }
+
+    private static String day(Instant ts) {
+        return LocalDate.ofInstant(ts, ZoneOffset.UTC).toString();
+    }
+
+    AnalyticsModels.AnalyticsAggregate toAggregate(String scope, String studentId, String courseId, String chapterId,
+                                                   String version, long recShown, Set<String> requiredChapters) {
+        double learningGain = opens == 0 ? 0.0 : ((double) completes / opens);
+        double dropOff = opens == 0 ? 0.0 : ((double) Math.max(opens - completes, 0) / opens);
+        Long mastery = masterySeconds();
+        Double timeToMastery = mastery == null ? null : mastery.doubleValue();
+        double recommendationAcceptance = recShown == 0 ? 0.0 : (double) acceptances / recShown;
+        long satisfied = completes > 0 && requiredChapters.contains(chapterId) ? 1 : 0;
+        double prereqViolation = requiredChapters.isEmpty() ? 0.0
+                : (double) (requiredChapters.size() - satisfied) / requiredChapters.size();
+
+        Map<String, Double> counters = Map.of(
+                "chapter_open", (double) opens,
+                "chapter_complete", (double) completes,
+                "answer_submit", (double) answerSubmits,
+                "term_click", (double) termClicks,
+                "recommendation_accept", (double) acceptances,
+                "recommendation_shown", (double) recShown
+        );
+
+        return new AnalyticsModels.AnalyticsAggregate(scope, studentId, courseId, chapterId, version,
+                learningGain, timeToMastery, recommendationAcceptance, dropOff, prereqViolation, Instant.now(), counters,
+                firstOpen, firstComplete);
+    }
+}
@@ -0,0 +1,156 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class LearningEventBuffer {
+    private static final Logger log = LoggerFactory.getLogger(LearningEventBuffer.class);
+
+    private final AnalyticsJdbcRepository repository;
+    private final OnlineAggregates onlineAggregates;
+    private final BottleneckSketches bottleneckSketches;
+    private final int capacity;
+    private final int batchSize;
+    private final boolean shedOldest;
+    private final int maxRetries;
+    private final int maxBatchesPerDrain;
+
+    private final Queue<AnalyticsModels.EventIn> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong shed = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final Queue<PendingBatch> retries = new ConcurrentLinkedQueue<>();
+    private volatile long lastDrainMs;
+
+    public LearningEventBuffer(AnalyticsJdbcRepository repository,
+                               OnlineAggregates onlineAggregates,
+                               BottleneckSketches bottleneckSketches,
+                               @Value("${analytics.ingest.buffer-capacity:100000}") int capacity,
+                               @Value("${analytics.ingest.batch-size:1000}") int batchSize,
+                               @Value("${analytics.ingest.overflow:reject}") String overflow,
+                               @Value("${analytics.ingest.max-retries:3}") int maxRetries,
+                               @Value("${analytics.ingest.max-batches-per-drain:50}") int maxBatchesPerDrain) {
+        this.repository = repository;
+        this.onlineAggregates = onlineAggregates;
+        this.bottleneckSketches = bottleneckSketches;
+        this.capacity = Math.max(1, capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.shedOldest = "shed-oldest".equalsIgnoreCase(overflow);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.maxBatchesPerDrain = Math.max(1, maxBatchesPerDrain);
+    }
+
+    public boolean offer(AnalyticsModels.EventIn event) {
+        if (!reserve()) {
+            if (!shedOldest || !shedOne() || !reserve()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        queue.add(event);
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    @Scheduled(fixedDelayString = "${analytics.ingest.drain-delay-ms:200}")
+    public void drain() {
+        flush();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        int batches;
+        do {
+            batches = flush();
+        } while (batches > 0);
+    }
+
+    public synchronized int flush() {
+        long started = System.currentTimeMillis();
+        int persistedBatches = 0;
+        for (int pending = retries.size(); pending > 0; pending--) {
+            PendingBatch retry = retries.poll();
+            if (persist(retry.events(), retry.attempts() + 1)) persistedBatches++;
+        }
+        for (int batches = 0; batches < maxBatchesPerDrain; batches++) {
+            List<AnalyticsModels.EventIn> batch = new ArrayList<>(batchSize);
+            AnalyticsModels.EventIn event;
+            while (batch.size() < batchSize && (event = queue.poll()) != null) {
+                size.decrementAndGet();
+                batch.add(event);
+            }
+            if (batch.isEmpty()) break;
+            if (persist(batch, 1)) persistedBatches++;
+        }
+        lastDrainMs = System.currentTimeMillis() - started;
+        return persistedBatches;
+    }
+
+    public synchronized void exclusive(Runnable action) {
+        action.run();
+    }
+
+    public AnalyticsModels.IngestStats stats() {
+        return new AnalyticsModels.IngestStats(size.get(), capacity, shedOldest ? "shed-oldest" : "reject",
+                enqueued.get(), rejected.get(), shed.get(), persisted.get(), failedBatches.get(), retries.size(), lost.get(), lastDrainMs);
+    }
+
+    private boolean persist(List<AnalyticsModels.EventIn> batch, int attempt) {
+        try {
+            onlineAggregates.prepare(batch);
+            repository.saveEvents(batch);
+        } catch (RuntimeException e) {
+            failedBatches.incrementAndGet();
+            if (attempt <= maxRetries) {
+                log.warn("Failed to persist {} learning events (attempt {}), will retry", batch.size(), attempt, e);
+                retries.add(new PendingBatch(batch, attempt));
+            } else {
+                log.error("Dropping {} learning events after {} failed attempts", batch.size(), attempt, e);
+                lost.addAndGet(batch.size());
+            }
+            return false;
+        }
+        persisted.addAndGet(batch.size());
+        try {
+            onlineAggregates.apply(batch);
+            bottleneckSketches.apply(batch);
+        } catch (RuntimeException e) {
+            log.warn("Failed to apply {} persisted learning events to live views, they catch up on the next recompute", batch.size(), e);
+        }
+        return true;
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int current = size.get();
+            if (current >= capacity) return false;
+            if (size.compareAndSet(current, current + 1)) return true;
+        }
+    }
+
+    private boolean shedOne() {
+        if (queue.poll() == null) return false;
+        size.decrementAndGet();
+        shed.incrementAndGet();
+        return true;
+    }
+
+    private record PendingBatch(List<AnalyticsModels.EventIn> events, int attempts) {}
+}
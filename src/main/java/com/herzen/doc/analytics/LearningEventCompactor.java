@@ -0,0 +1,65 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Component
+public class LearningEventCompactor {
+    private final AnalyticsJdbcRepository repository;
+    private final LearningEventBuffer eventBuffer;
+
+    public LearningEventCompactor(AnalyticsJdbcRepository repository, LearningEventBuffer eventBuffer) {
+        this.repository = repository;
+        this.eventBuffer = eventBuffer;
+    }
+
+    /**
+     * Compacts each day before {@code cutoff} in its own exclusive section of the event buffer, so ingestion
+     * drains between days instead of waiting for the whole job.
+     */
+
+    AnalyticsModels.CompactionResult compactBefore(LocalDate cutoff, long uptoId) {
+        int days = 0;
+        long events = 0;
+        for (LocalDate day : repository.loadEventDaysBefore(cutoff)) {
+            int[] compacted = new int[1];
+            eventBuffer.exclusive(() -> compacted[0] = compactDay(day, uptoId));
+            events += compacted[0];
+            days++;
+        }
+        return new AnalyticsModels.CompactionResult(cutoff.toString(), days, events);
+    }
+
+    private int compactDay(LocalDate day, long uptoId) {
+        Map<AggregateKey, KeyAccumulator> keys = new HashMap<>();
+        Map<String, BottleneckSummary> courses = new HashMap<>();
+        repository.scanEventsOnDay(day, uptoId, e -> {
+            if (BottleneckSketches.EVENT_TYPES.contains(e.eventType())) {
+                courses.computeIfAbsent(e.courseId(), c -> new BottleneckSummary(0))
+                        .add(e.chapterId(), e.eventType(), LearningEventTypes.payloadValue(e.payload(), "term"));
+            }
+            if (e.chapterId() == null || e.chapterId().isBlank()) return;
+            keys.computeIfAbsent(AggregateKey.of(e.studentId(), e.courseId(), e.chapterId(), e.recommenderVersion()),
+                    k -> new KeyAccumulator()).add(e.eventType(), e.ts());
+        });
+
+        List<AnalyticsJdbcRepository.KeyRollupRow> keyRollups = new ArrayList<>(keys.size());
+        keys.forEach((key, accumulator) -> keyRollups.add(accumulator.toRollup(key)));
+        List<AnalyticsJdbcRepository.CourseRollupRow> courseRollups = new ArrayList<>();
+        courses.forEach((courseId, summary) -> {
+            summary.termClicks().forEach((term, n) -> courseRollups.add(
+                    new AnalyticsJdbcRepository.CourseRollupRow(courseId, LearningEventTypes.TERM_CLICK, term, n)));
+            summary.chapterOpens().forEach((chapter, n) -> courseRollups.add(
+                    new AnalyticsJdbcRepository.CourseRollupRow(courseId, LearningEventTypes.CHAPTER_OPEN, chapter, n)));
+            summary.chapterCompletes().forEach((chapter, n) -> courseRollups.add(
+                    new AnalyticsJdbcRepository.CourseRollupRow(courseId, LearningEventTypes.CHAPTER_COMPLETE, chapter, n)));
+        });
+        return repository.compactDay(day, uptoId, keyRollups, courseRollups);
+    }
+}
@@ -17,5 +17,24 @@ public final class LearningEventTypes {
             RECOMMENDATION_ACCEPT
     );
 
+    public static String payloadValue(String payload, String key) {
+        if (payload == null) return null;
+        for (String part : payload.split(",")) {
+            String p = part.trim();
+            if (p.startsWith(key + "=")) return p.substring((key + "=").length());
+        }
+        return null;
+    }
+
+    public static Integer payloadInt(String payload, String key) {
+        String value = payloadValue(payload, key);
+        if (value == null) return null;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private LearningEventTypes() {}
 }
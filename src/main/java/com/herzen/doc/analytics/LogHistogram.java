@@ -0,0 +1,79 @@
+package com.herzen.doc.analytics;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+class LogHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final TreeMap<Integer, Long> counts = new TreeMap<>();
+    private long total;
+
+    static LogHistogram parse(String encoded) {
+        LogHistogram histogram = new LogHistogram();
+        if (encoded == null || encoded.isBlank()) return histogram;
+        for (String part : encoded.split(",")) {
+            int sep = part.indexOf(':');
+            if (sep <= 0) continue;
+            histogram.add(Integer.parseInt(part.substring(0, sep)), Long.parseLong(part.substring(sep + 1)));
+        }
+        return histogram;
+    }
+
+    void record(long value) {
+        add(index(Math.max(0L, value)), 1L);
+    }
+
+    void merge(LogHistogram other) {
+        other.counts.forEach(this::add);
+    }
+
+    long count() {
+        return total;
+    }
+
+    double quantile(double q) {
+        if (total == 0) return 0.0;
+        long rank = Math.max(1L, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (Map.Entry<Integer, Long> e : counts.entrySet()) {
+            seen += e.getValue();
+            if (seen >= rank) {
+                long low = lowerBound(e.getKey());
+                long high = lowerBound(e.getKey() + 1) - 1;
+                return (low + high) / 2.0;
+            }
+        }
+        return lowerBound(counts.lastKey());
+    }
+
+    String encode() {
+        StringBuilder out = new StringBuilder();
+        counts.forEach((index, count) -> {
+            if (!out.isEmpty()) out.append(',');
+            out.append(index).append(':').append(count);
+        });
+        return out.toString();
+    }
+
+    private void add(int index, long count) {
+        counts.merge(index, count, Long::sum);
+        total += count;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+    }
+
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int sub = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << shift;
+    }
+}
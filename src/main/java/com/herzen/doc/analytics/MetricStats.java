@@ -0,0 +1,68 @@
+package com.herzen.doc.analytics;
+
+class MetricStats {
+    private long n;
+    private double mean;
+    private double m2;
+
+    MetricStats() {
+    }
+
+    MetricStats(long n, double mean, double m2) {
+        this.n = n;
+        this.mean = mean;
+        this.m2 = m2;
+    }
+
+    void add(double x) {
+        n++;
+        double delta = x - mean;
+        mean += delta / n;
+        m2 += delta * (x - mean);
+    }
+
+    /** Inverse of {@link #add}: takes a value that was previously added back out. */
+    void remove(double x) {
+        if (n <= 1) {
+            n = 0;
+            mean = 0.0;
+            m2 = 0.0;
+            return;
+        }
+        double previousMean = mean;
+        n--;
+        mean = (previousMean * (n + 1) - x) / n;
+        m2 = Math.max(0.0, m2 - (x - previousMean) * (x - mean));
+    }
+
+    void merge(MetricStats other) {
+        if (other.n == 0) return;
+        if (n == 0) {
+            n = other.n;
+            mean = other.mean;
+            m2 = other.m2;
+            return;
+        }
+        long total = n + other.n;
+        double delta = other.mean - mean;
+        mean += delta * other.n / total;
+        m2 += other.m2 + delta * delta * ((double) n * other.n / total);
+        n = total;
+    }
+
+    long n() {
+        return n;
+    }
+
+    double mean() {
+        return n == 0 ? 0.0 : mean;
+    }
+
+    double m2() {
+        return m2;
+    }
+
+    double ci95() {
+        return n < 2 ? 0.0 : 1.96 * Math.sqrt(m2 / (n - 1) / n);
+    }
+}
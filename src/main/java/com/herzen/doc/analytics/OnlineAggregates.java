@@ -0,0 +1,146 @@
+package com.herzen.doc.analytics;
+
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+@Component
+public class OnlineAggregates {
+    private final AnalyticsJdbcRepository repository;
+    private final CourseRollups courseRollups;
+    private final boolean enabled;
+    private final int maxKeys;
+
+    private final Map<AggregateKey, KeyAccumulator> accumulators = new HashMap<>();
+    private final Set<AggregateKey> dirty = new LinkedHashSet<>();
+    private final Set<AggregateKey> touchedSinceMark = new HashSet<>();
+    private boolean marked;
+    private long flushedKeys;
+
+    public OnlineAggregates(AnalyticsJdbcRepository repository,
+                            CourseRollups courseRollups,
+                            @Value("${analytics.aggregation.mode:batch}") String mode,
+                            @Value("${analytics.online.max-keys:100000}") int maxKeys) {
+        this.repository = repository;
+        this.courseRollups = courseRollups;
+        this.enabled = "online".equalsIgnoreCase(mode);
+        this.maxKeys = Math.max(1, maxKeys);
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    void prepare(List<AnalyticsModels.EventIn> batch) {
+        if (!enabled) return;
+        Set<AggregateKey> missing = new HashSet<>();
+        synchronized (this) {
+            for (AnalyticsModels.EventIn event : batch) {
+                AggregateKey key = keyOf(event);
+                if (key != null && !accumulators.containsKey(key)) missing.add(key);
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        // A key is only evicted after its state was flushed, and a recompute only drops keys whose row it
+        // just rewrote, so the stored row is the complete state of any key not held here.
+        Set<String> students = missing.stream().map(AggregateKey::studentId).collect(Collectors.toSet());
+        Map<AggregateKey, KeyAccumulator> seeded = new HashMap<>();
+        missing.forEach(k -> seeded.put(k, new KeyAccumulator()));
+        repository.scanStudentAggregates(AggregateScopes.STUDENT_CHAPTER, students, a -> {
+            AggregateKey key = AggregateKey.of(a.studentId(), a.courseId(), a.chapterId(), a.recommenderVersion());
+            if (seeded.containsKey(key)) seeded.put(key, KeyAccumulator.restore(a));
+        });
+        synchronized (this) {
+            seeded.forEach((key, accumulator) -> {
+                if (accumulators.putIfAbsent(key, accumulator) == null && marked) touchedSinceMark.add(key);
+            });
+        }
+    }
+
+    synchronized void apply(List<AnalyticsModels.EventIn> batch) {
+        if (!enabled) return;
+        for (AnalyticsModels.EventIn event : batch) {
+            AggregateKey key = keyOf(event);
+            KeyAccumulator accumulator = key == null ? null : accumulators.get(key);
+            if (accumulator == null) continue;
+            accumulator.add(event.eventType(), event.ts() == null ? Instant.now() : event.ts());
+            dirty.add(key);
+            if (marked) touchedSinceMark.add(key);
+        }
+    }
+
+    public int flush() {
+        if (!enabled) return 0;
+        List<AggregateKey> keys;
+        synchronized (this) {
+            keys = new ArrayList<>(dirty);
+        }
+        if (keys.isEmpty()) return 0;
+
+        AggregateContext context = AggregateContext.load(repository,
+                keys.stream().map(AggregateKey::chapterKey).collect(Collectors.toSet()),
+                keys.stream().map(AggregateKey::courseId).collect(Collectors.toSet()),
+                Long.MAX_VALUE);
+        List<AnalyticsModels.AnalyticsAggregate> aggregates = new ArrayList<>(keys.size());
+        synchronized (this) {
+            for (AggregateKey key : keys) {
+                KeyAccumulator accumulator = accumulators.get(key);
+                if (accumulator != null) aggregates.add(context.build(key, accumulator));
+                dirty.remove(key);
+            }
+        }
+        List<AnalyticsModels.AnalyticsAggregate> previous = courseRollups.previous(aggregates);
+        repository.upsertAggregates(aggregates);
+        courseRollups.replace(previous, aggregates);
+        synchronized (this) {
+            flushedKeys += aggregates.size();
+            if (accumulators.size() > maxKeys) accumulators.keySet().retainAll(dirty);
+        }
+        return aggregates.size();
+    }
+
+    /**
+     * Starts tracking which keys receive events from here on. A recompute calls this before it reads
+     * the event range it is going to cover.
+     */
+    synchronized void mark() {
+        touchedSinceMark.clear();
+        marked = true;
+    }
+
+    /**
+     * Drops the state of keys a recompute has just rewritten, so they are re-seeded from the stored
+     * row on their next event. Keys seeded or updated after {@link #mark()} keep their state: the
+     * recompute may not have seen their latest events.
+     */
+    synchronized void invalidate(Collection<AggregateKey> covered) {
+        for (AggregateKey key : covered) {
+            if (touchedSinceMark.contains(key)) continue;
+            accumulators.remove(key);
+            dirty.remove(key);
+        }
+        touchedSinceMark.clear();
+        marked = false;
+    }
+
+    public synchronized AnalyticsModels.OnlineAggregateStats stats() {
+        return new AnalyticsModels.OnlineAggregateStats(enabled, accumulators.size(), dirty.size(), flushedKeys);
+    }
+
+    private AggregateKey keyOf(AnalyticsModels.EventIn event) {
+        if (event.chapterId() == null || event.chapterId().isBlank()) return null;
+        return AggregateKey.of(event.studentId(), event.courseId(), event.chapterId(), event.recommenderVersion());
+    }
+}
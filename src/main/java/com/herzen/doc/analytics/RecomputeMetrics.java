@@ -0,0 +1,52 @@
+package com.herzen.doc.analytics;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RecomputeMetrics {
+    private final AtomicLong runs = new AtomicLong();
+    private final AtomicLong skippedRuns = new AtomicLong();
+    private final AtomicInteger partitionsDone = new AtomicInteger();
+    private final AtomicLong keysDone = new AtomicLong();
+    private volatile boolean running;
+    private volatile int partitionsTotal;
+    private volatile Instant lastStartedAt;
+    private volatile long startedNanos;
+    private volatile long lastDurationMs;
+    private volatile long lastKeys;
+
+    void start() {
+        runs.incrementAndGet();
+        partitionsDone.set(0);
+        keysDone.set(0);
+        partitionsTotal = 0;
+        lastStartedAt = Instant.now();
+        startedNanos = System.nanoTime();
+        running = true;
+    }
+
+    void partitions(int total) {
+        partitionsTotal = total;
+    }
+
+    void partitionDone(int keys) {
+        partitionsDone.incrementAndGet();
+        keysDone.addAndGet(keys);
+    }
+
+    void finish() {
+        lastDurationMs = (System.nanoTime() - startedNanos) / 1_000_000;
+        lastKeys = keysDone.get();
+        running = false;
+    }
+
+    void skipped() {
+        skippedRuns.incrementAndGet();
+    }
+
+    AnalyticsModels.RecomputeStats snapshot() {
+        return new AnalyticsModels.RecomputeStats(running, runs.get(), skippedRuns.get(), lastStartedAt,
+                lastDurationMs, lastKeys, partitionsDone.get(), partitionsTotal, keysDone.get());
+    }
+}
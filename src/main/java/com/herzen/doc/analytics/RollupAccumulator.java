@@ -0,0 +1,84 @@
+package com.herzen.doc.analytics;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+class RollupAccumulator {
+    private static final String LEARNING_GAIN = "learning_gain";
+    private static final String TIME_TO_MASTERY = "time_to_mastery_seconds";
+    private static final String ACCEPTANCE = "recommendation_acceptance";
+    private static final String DROP_OFF = "drop_off";
+    private static final String PREREQUISITE_VIOLATION = "prerequisite_violation";
+    private static final String[] METRICS = {LEARNING_GAIN, TIME_TO_MASTERY, ACCEPTANCE, DROP_OFF, PREREQUISITE_VIOLATION};
+
+    private final Map<String, MetricStats> metrics = new HashMap<>();
+
+    RollupAccumulator() {
+        for (String metric : METRICS) metrics.put(metric, new MetricStats());
+    }
+
+    static RollupAccumulator fromCounters(Map<String, Double> counters) {
+        RollupAccumulator rollup = new RollupAccumulator();
+        for (String metric : METRICS) {
+            rollup.metrics.put(metric, new MetricStats(
+                    counters.getOrDefault(metric + ".n", 0.0).longValue(),
+                    counters.getOrDefault(metric + ".mean", 0.0),
+                    counters.getOrDefault(metric + ".m2", 0.0)));
+        }
+        return rollup;
+    }
+
+    void add(AnalyticsModels.AnalyticsAggregate aggregate) {
+        metrics.get(LEARNING_GAIN).add(aggregate.learningGain());
+        if (aggregate.timeToMasterySeconds() != null) metrics.get(TIME_TO_MASTERY).add(aggregate.timeToMasterySeconds());
+        metrics.get(ACCEPTANCE).add(aggregate.recommendationAcceptance());
+        metrics.get(DROP_OFF).add(aggregate.dropOff());
+        metrics.get(PREREQUISITE_VIOLATION).add(aggregate.prerequisiteViolation());
+    }
+
+    void remove(AnalyticsModels.AnalyticsAggregate aggregate) {
+        metrics.get(LEARNING_GAIN).remove(aggregate.learningGain());
+        if (aggregate.timeToMasterySeconds() != null) metrics.get(TIME_TO_MASTERY).remove(aggregate.timeToMasterySeconds());
+        metrics.get(ACCEPTANCE).remove(aggregate.recommendationAcceptance());
+        metrics.get(DROP_OFF).remove(aggregate.dropOff());
+        metrics.get(PREREQUISITE_VIOLATION).remove(aggregate.prerequisiteViolation());
+    }
+
+    void merge(RollupAccumulator other) {
+        for (String metric : METRICS) metrics.get(metric).merge(other.metrics.get(metric));
+    }
+
+    AnalyticsModels.AnalyticsAggregate toAggregate(String scope, AggregateKey key) {
+        MetricStats timeToMastery = metrics.get(TIME_TO_MASTERY);
+        Map<String, Double> counters = new HashMap<>();
+        metrics.forEach((metric, stats) -> {
+            counters.put(metric + ".n", (double) stats.n());
+            counters.put(metric + ".mean", stats.mean());
+            counters.put(metric + ".m2", stats.m2());
+        });
+        return new AnalyticsModels.AnalyticsAggregate(scope, key.studentId(), key.courseId(), key.chapterId(), key.version(),
+                metrics.get(LEARNING_GAIN).mean(),
+                timeToMastery.n() == 0 ? null : timeToMastery.mean(),
+                metrics.get(ACCEPTANCE).mean(),
+                metrics.get(DROP_OFF).mean(),
+                metrics.get(PREREQUISITE_VIOLATION).mean(),
+                Instant.now(), counters, null, null);
+    }
+
+    AnalyticsModels.RecommenderComparisonRow toComparison(String version) {
+        return new AnalyticsModels.RecommenderComparisonRow(
+                version,
+                metrics.get(LEARNING_GAIN).mean(),
+                metrics.get(TIME_TO_MASTERY).mean(),
+                metrics.get(ACCEPTANCE).mean(),
+                metrics.get(DROP_OFF).mean(),
+                metrics.get(PREREQUISITE_VIOLATION).mean(),
+                metrics.get(LEARNING_GAIN).n(),
+                metrics.get(LEARNING_GAIN).ci95(),
+                metrics.get(TIME_TO_MASTERY).ci95(),
+                metrics.get(ACCEPTANCE).ci95(),
+                metrics.get(DROP_OFF).ci95(),
+                metrics.get(PREREQUISITE_VIOLATION).ci95());
+    }
+}
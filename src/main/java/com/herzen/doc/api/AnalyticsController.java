@@ -2,34 +2,99 @@ package com.herzen.doc.api;
 
 import com.herzen.doc.analytics.AnalyticsModels;
 import com.herzen.doc.analytics.AnalyticsService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
 
 @RestController
 @RequestMapping("/api/analytics")
 public class AnalyticsController {
+    private static final String NDJSON = "application/x-ndjson";
+
     private final AnalyticsService analyticsService;
+    private final ObjectMapper objectMapper;
 
-    public AnalyticsController(AnalyticsService analyticsService) {
+    public AnalyticsController(AnalyticsService analyticsService, ObjectMapper objectMapper) {
         this.analyticsService = analyticsService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping("/events")
     public ResponseEntity<AnalyticsModels.LearningEventAck> ingest(@RequestBody AnalyticsModels.LearningEventIngestRequest request) {
-        return ResponseEntity.ok(analyticsService.ingest(request));
+        AnalyticsModels.LearningEventAck ack = analyticsService.ingest(request);
+        // In-flight ids belong to a concurrent request that may still fail, so the client has to resend them.
+        if (ack.rejected() > 0 || ack.inFlight() > 0) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(ack);
+        }
+        return ResponseEntity.accepted().body(ack);
+    }
+
+    @GetMapping("/events/stats")
+    public ResponseEntity<AnalyticsModels.IngestStats> ingestStats() {
+        return ResponseEntity.ok(analyticsService.ingestStats());
+    }
+
+    @GetMapping("/events/dedup/stats")
+    public ResponseEntity<AnalyticsModels.DedupStats> dedupStats() {
+        return ResponseEntity.ok(analyticsService.dedupStats());
     }
 
     @PostMapping("/recompute")
-    public ResponseEntity<Void> recompute() {
-        analyticsService.recomputeAggregates();
+    public ResponseEntity<Void> recompute(@RequestParam(defaultValue = "false") boolean full) {
+        analyticsService.recomputeAggregates(full);
         return ResponseEntity.accepted().build();
     }
 
+    @PostMapping("/retention/compact")
+    public ResponseEntity<AnalyticsModels.CompactionResult> compact() {
+        return ResponseEntity.ok(analyticsService.compactExpiredEvents());
+    }
+
+    @GetMapping("/recompute/stats")
+    public ResponseEntity<AnalyticsModels.RecomputeStats> recomputeStats() {
+        return ResponseEntity.ok(analyticsService.recomputeStats());
+    }
+
+    @PostMapping("/online/flush")
+    public ResponseEntity<Integer> flushOnline() {
+        return ResponseEntity.ok(analyticsService.flushOnlineAggregates());
+    }
+
+    @GetMapping("/online/stats")
+    public ResponseEntity<AnalyticsModels.OnlineAggregateStats> onlineStats() {
+        return ResponseEntity.ok(analyticsService.onlineStats());
+    }
+
     @GetMapping("/overview")
     public ResponseEntity<AnalyticsModels.AnalyticsOverviewResponse> overview(@RequestParam(required = false) String studentId,
                                                                               @RequestParam(required = false) String courseId,
-                                                                              @RequestParam(required = false) String chapterId) {
-        return ResponseEntity.ok(analyticsService.overview(studentId, courseId, chapterId));
+                                                                              @RequestParam(required = false) String chapterId,
+                                                                              @RequestParam(required = false) String cursor,
+                                                                              @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(analyticsService.overview(studentId, courseId, chapterId, cursor, limit));
+    }
+
+    @GetMapping(value = "/overview", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> exportOverview(@RequestParam(required = false) String studentId,
+                                                                @RequestParam(required = false) String courseId,
+                                                                @RequestParam(required = false) String chapterId) {
+        StreamingResponseBody body = out -> analyticsService.exportOverview(studentId, courseId, chapterId, row -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(row));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
     }
 
     @GetMapping("/compare")
@@ -37,8 +102,33 @@ public class AnalyticsController {
         return ResponseEntity.ok(analyticsService.compareByVersion(courseId));
     }
 
+    @GetMapping("/compare/chapters")
+    public ResponseEntity<AnalyticsModels.ChapterComparisonResponse> compareChapters(@RequestParam String courseId) {
+        return ResponseEntity.ok(analyticsService.compareChapters(courseId));
+    }
+
+    @GetMapping("/latency")
+    public ResponseEntity<AnalyticsModels.LatencyPercentilesResponse> latency(@RequestParam String courseId,
+                                                                              @RequestParam(required = false) String version,
+                                                                              @RequestParam(defaultValue = "time_to_mastery") String metric,
+                                                                              @RequestParam(defaultValue = "14") int days) {
+        return ResponseEntity.ok(analyticsService.latency(courseId, version, metric, days));
+    }
+
+    @GetMapping("/students")
+    public ResponseEntity<AnalyticsModels.CourseStudentsResponse> students(@RequestParam String courseId) {
+        return ResponseEntity.ok(analyticsService.courseStudents(courseId));
+    }
+
     @GetMapping("/bottlenecks")
-    public ResponseEntity<AnalyticsModels.BottleneckResponse> bottlenecks(@RequestParam(required = false) String courseId) {
-        return ResponseEntity.ok(analyticsService.bottlenecks(courseId));
+    public ResponseEntity<AnalyticsModels.BottleneckResponse> bottlenecks(@RequestParam(required = false) String courseId,
+                                                                          @RequestParam(defaultValue = "false") boolean exact,
+                                                                          @RequestParam(defaultValue = "0") int days) {
+        return ResponseEntity.ok(analyticsService.bottlenecks(courseId, exact, days));
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
     }
 }
@@ -1,19 +1,24 @@
 package com.herzen.doc.api;
 
+import com.herzen.doc.assessment.AssessmentHistoryImportService;
 import com.herzen.doc.assessment.AssessmentModels;
 import com.herzen.doc.assessment.AssessmentService;
+import com.herzen.doc.knowledge.StudentKnowledgeStore;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.io.InputStream;
 import java.util.List;
 
 @RestController
 @RequestMapping("/api/assessment")
 public class AssessmentController {
     private final AssessmentService assessmentService;
+    private final AssessmentHistoryImportService historyImportService;
 
-    public AssessmentController(AssessmentService assessmentService) {
+    public AssessmentController(AssessmentService assessmentService, AssessmentHistoryImportService historyImportService) {
         this.assessmentService = assessmentService;
+        this.historyImportService = historyImportService;
     }
 
     @PostMapping("/start")
@@ -33,6 +38,25 @@ public class AssessmentController {
         return ResponseEntity.ok(assessmentService.profile(studentId, courseId));
     }
 
+    @PostMapping("/history/import")
+    public ResponseEntity<AssessmentModels.HistoryImportResult> importHistory(InputStream body,
+                                                                              @RequestHeader(value = "Content-Type", required = false) String contentType,
+                                                                              @RequestParam(required = false) String format) {
+        String resolved = format != null ? format
+                : (contentType != null && contentType.contains("json")) ? "ndjson" : "csv";
+        return ResponseEntity.ok(historyImportService.importHistory(body, resolved));
+    }
+
+    @GetMapping("/sessions/stats")
+    public ResponseEntity<AssessmentModels.AssessmentSessionStats> sessionStats() {
+        return ResponseEntity.ok(assessmentService.sessionStats());
+    }
+
+    @GetMapping("/knowledge/stats")
+    public ResponseEntity<StudentKnowledgeStore.KnowledgeStoreStats> knowledgeStats() {
+        return ResponseEntity.ok(assessmentService.knowledgeStats());
+    }
+
     public record StartRequest(String studentId, String courseId, String chapterId) {}
 
     public record SubmitRequest(String studentId,
@@ -6,6 +6,8 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
@@ -27,6 +29,25 @@ public class RecommendationController {
         return ResponseEntity.ok(recommendationService.next(studentId, courseId, completed, recommenderVersion));
     }
 
+    @GetMapping("/variants")
+    public ResponseEntity<RecommendationModels.RecommendationVariantsResponse> variants(@RequestParam String studentId,
+                                                                                       @RequestParam String courseId,
+                                                                                       @RequestParam(required = false) String completedChapterIds,
+                                                                                       @RequestParam(required = false) String recommenderVersions) {
+        return ResponseEntity.ok(new RecommendationModels.RecommendationVariantsResponse(recommendationService.compareVariants(
+                studentId, courseId, parseCsv(completedChapterIds), parseCsv(recommenderVersions))));
+    }
+
+    @GetMapping("/versions")
+    public ResponseEntity<List<String>> versions() {
+        return ResponseEntity.ok(recommendationService.versions());
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<Map<String, String>> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
+    }
+
     private Set<String> parseCsv(String csv) {
         if (csv == null || csv.isBlank()) return Set.of();
         return Arrays.stream(csv.split(",")).map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toSet());
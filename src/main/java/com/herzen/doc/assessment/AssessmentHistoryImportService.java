@@ -0,0 +1,286 @@
+package com.herzen.doc.assessment;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.herzen.doc.analytics.LearningEventTypes;
+import com.herzen.doc.assessment.AssessmentModels.*;
+import com.herzen.doc.knowledge.StudentKnowledgeStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Service
+public class AssessmentHistoryImportService {
+    private final AssessmentService assessmentService;
+    private final StudentKnowledgeStore knowledgeStore;
+    private final ObjectMapper objectMapper;
+    private final int partitions;
+    private final int chunkSize;
+    private final int writeBatchSize;
+
+    public AssessmentHistoryImportService(AssessmentService assessmentService,
+                                          StudentKnowledgeStore knowledgeStore,
+                                          ObjectMapper objectMapper,
+                                          @Value("${assessment.history-import.partitions:0}") int partitions,
+                                          @Value("${assessment.history-import.chunk-size:20000}") int chunkSize,
+                                          @Value("${assessment.history-import.write-batch-size:5000}") int writeBatchSize) {
+        this.assessmentService = assessmentService;
+        this.knowledgeStore = knowledgeStore;
+        this.objectMapper = objectMapper;
+        this.partitions = partitions > 0 ? partitions : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = Math.max(1, chunkSize);
+        this.writeBatchSize = Math.max(1, writeBatchSize);
+    }
+
+    public HistoryImportResult importHistory(InputStream input, String format) {
+        long started = System.currentTimeMillis();
+        boolean ndjson = "ndjson".equalsIgnoreCase(format) || "json".equalsIgnoreCase(format);
+        Map<TermKey, Tally> tallies = new ConcurrentHashMap<>();
+        Map<DayKey, DayTally> days = new ConcurrentHashMap<>();
+        AtomicLong records = new AtomicLong();
+        AtomicLong scored = new AtomicLong();
+        AtomicLong malformed = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(partitions);
+        Semaphore inFlight = new Semaphore(partitions * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+            boolean first = true;
+            while ((line = reader.readLine()) != null) {
+                if (first && !ndjson && isHeader(line)) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if (line.isBlank()) continue;
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    futures.add(submitChunk(executor, inFlight, chunk, ndjson, tallies, days, records, scored, malformed));
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                futures.add(submitChunk(executor, inFlight, chunk, ndjson, tallies, days, records, scored, malformed));
+            }
+            futures.forEach(this::await);
+
+            writeHistory(executor, tallies, days);
+            Set<String> students = new HashSet<>();
+            tallies.keySet().forEach(k -> students.add(k.studentId() + "|" + k.courseId()));
+            return new HistoryImportResult(records.get(), scored.get(), records.get() - scored.get() - malformed.get(),
+                    malformed.get(), students.size(), tallies.size(), days.size(), System.currentTimeMillis() - started);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<?> submitChunk(ExecutorService executor, Semaphore inFlight, List<String> lines, boolean ndjson,
+                                  Map<TermKey, Tally> tallies, Map<DayKey, DayTally> days,
+                                  AtomicLong records, AtomicLong scored, AtomicLong malformed) {
+        acquire(inFlight);
+        return executor.submit(() -> {
+            try {
+                Map<TermKey, Tally> localTallies = new HashMap<>();
+                Map<DayKey, DayTally> localDays = new HashMap<>();
+                long localScored = 0;
+                long localMalformed = 0;
+                for (String line : lines) {
+                    HistoricalAnswer answer = parse(line, ndjson);
+                    if (answer == null) {
+                        localMalformed++;
+                        continue;
+                    }
+                    AssessmentQuestion question = assessmentService.questionBank(answer.courseId()).question(answer.questionId());
+                    if (question == null) continue;
+
+                    boolean correct = Objects.equals(question.correctOption(), answer.selectedOption());
+                    localTallies.computeIfAbsent(new TermKey(answer.studentId(), answer.courseId(), question.termKey()), k -> new Tally())
+                            .add(correct);
+                    Instant ts = answer.ts() == null ? Instant.now() : answer.ts();
+                    localDays.computeIfAbsent(new DayKey(answer.studentId(), answer.courseId(), LocalDate.ofInstant(ts, ZoneOffset.UTC)), k -> new DayTally())
+                            .add(question.termKey(), ts);
+                    localScored++;
+                }
+                localTallies.forEach((key, tally) -> tallies.merge(key, tally, Tally::merge));
+                localDays.forEach((key, tally) -> days.merge(key, tally, DayTally::merge));
+                records.addAndGet(lines.size());
+                scored.addAndGet(localScored);
+                malformed.addAndGet(localMalformed);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Writes knowledge and events grouped by student, so every transaction carries all of a student's
+     * imported rows: a failed batch never leaves knowledge without its answer_submit events.
+     */
+    private void writeHistory(ExecutorService executor, Map<TermKey, Tally> tallies, Map<DayKey, DayTally> days) {
+        List<Map<String, StudentHistory>> partitioned = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) partitioned.add(new HashMap<>());
+        tallies.forEach((key, tally) -> history(partitioned, key.studentId()).tallies.add(new HistoricalTally(
+                key.studentId(), key.courseId(), key.termKey(), tally.attempts, tally.correct)));
+        days.forEach((key, tally) -> history(partitioned, key.studentId()).events.add(new LearningEvent(
+                key.studentId(), key.courseId(), null, LearningEventTypes.ANSWER_SUBMIT, tally.lastTs,
+                "source=history_import,answers=" + tally.answers + ",terms=" + tally.terms.size(), "default")));
+
+        List<Future<?>> writes = partitioned.stream()
+                .filter(p -> !p.isEmpty())
+                .<Future<?>>map(partition -> executor.submit(() -> {
+                    List<HistoricalTally> batchTallies = new ArrayList<>();
+                    List<LearningEvent> batchEvents = new ArrayList<>();
+                    for (StudentHistory student : partition.values()) {
+                        batchTallies.addAll(student.tallies);
+                        batchEvents.addAll(student.events);
+                        if (batchTallies.size() + batchEvents.size() >= writeBatchSize) {
+                            knowledgeStore.saveHistory(batchTallies, batchEvents);
+                            batchTallies.clear();
+                            batchEvents.clear();
+                        }
+                    }
+                    if (!batchTallies.isEmpty() || !batchEvents.isEmpty()) {
+                        knowledgeStore.saveHistory(batchTallies, batchEvents);
+                    }
+                }))
+                .toList();
+        writes.forEach(this::await);
+    }
+
+    private StudentHistory history(List<Map<String, StudentHistory>> partitioned, String studentId) {
+        return partitioned.get(Math.floorMod(studentId.hashCode(), partitions))
+                .computeIfAbsent(studentId, id -> new StudentHistory());
+    }
+
+    private HistoricalAnswer parse(String line, boolean ndjson) {
+        try {
+            HistoricalAnswer answer;
+            if (ndjson) {
+                answer = objectMapper.readValue(line, HistoricalAnswer.class);
+            } else {
+                List<String> fields = splitCsv(line);
+                if (fields.size() < 4) return null;
+                Instant ts = fields.size() > 4 && !fields.get(4).isBlank() ? Instant.parse(fields.get(4).trim()) : null;
+                answer = new HistoricalAnswer(fields.get(0).trim(), fields.get(1).trim(), fields.get(2).trim(), fields.get(3), ts);
+            }
+            if (answer.studentId() == null || answer.studentId().isBlank() || answer.courseId() == null || answer.questionId() == null) {
+                return null;
+            }
+            return answer;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private boolean isHeader(String line) {
+        String firstField = splitCsv(line).get(0).trim().toLowerCase(Locale.ROOT);
+        return firstField.equals("student") || firstField.equals("studentid") || firstField.equals("student_id");
+    }
+
+    private List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(5);
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields;
+    }
+
+    private void acquire(Semaphore semaphore) {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("History import interrupted", e);
+        }
+    }
+
+    private void await(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("History import interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("History import failed", e.getCause());
+        }
+    }
+
+    private record TermKey(String studentId, String courseId, String termKey) {}
+
+    private record DayKey(String studentId, String courseId, LocalDate day) {}
+
+    private static final class Tally {
+        private int attempts;
+        private int correct;
+
+        void add(boolean ok) {
+            attempts++;
+            if (ok) correct++;
+        }
+
+        Tally merge(Tally other) {
+            attempts += other.attempts;
+            correct += other.correct;
+            return this;
+        }
+    }
+
+    private static final class StudentHistory {
+        private final List<HistoricalTally> tallies = new ArrayList<>();
+        private final List<LearningEvent> events = new ArrayList<>();
+    }
+
+    private static final class DayTally {
+        private int answers;
+        private final Set<String> terms = new HashSet<>();
+        private Instant lastTs;
+
+        void add(String termKey, Instant ts) {
+            answers++;
+            terms.add(termKey);
+            if (lastTs == null || ts.isAfter(lastTs)) lastTs = ts;
+        }
+
+        DayTally merge(DayTally other) {
+            answers += other.answers;
+            terms.addAll(other.terms);
+            if (lastTs == null || (other.lastTs != null && other.lastTs.isAfter(lastTs))) lastTs = other.lastTs;
+            return this;
+        }
+    }
+}
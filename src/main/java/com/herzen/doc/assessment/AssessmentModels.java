@@ -12,6 +12,20 @@ public class AssessmentModels {
                                     Set<String> askedTerms,
                                     boolean refinementIssued) {}
 
+    public record AssessmentSessionStats(int size,
+                                         int maxSize,
+                                         long ttlMs,
+                                         String persistence,
+                                         long created,
+                                         long hits,
+                                         long misses,
+                                         long expired,
+                                         long evicted,
+                                         long restored,
+                                         int pendingWrites,
+                                         long persisted,
+                                         long persistFailures) {}
+
     public record AssessmentQuestion(String questionId, String termKey, String prompt, List<String> options, String correctOption) {}
 
     public record AssessmentAttempt(String sessionId, String questionId, String selectedOption) {}
@@ -27,5 +41,18 @@ public class AssessmentModels {
                                            StudentKnowledgeProfile profile,
                                            List<LearningEvent> events) {}
 
+    public record HistoricalAnswer(String studentId, String courseId, String questionId, String selectedOption, Instant ts) {}
+
+    public record HistoricalTally(String studentId, String courseId, String termKey, int attempts, int correct) {}
+
+    public record HistoryImportResult(long records,
+                                      long scored,
+                                      long rejected,
+                                      long malformed,
+                                      int students,
+                                      int knowledgeRows,
+                                      int events,
+                                      long elapsedMs) {}
+
     public record LearningEvent(String studentId, String courseId, String chapterId, String eventType, Instant ts, String payload, String recommenderVersion) {}
 }
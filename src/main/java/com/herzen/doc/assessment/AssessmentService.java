@@ -1,8 +1,12 @@
 package com.herzen.doc.assessment;
 
 import com.herzen.doc.assessment.AssessmentModels.*;
+import com.herzen.doc.knowledge.StudentKnowledgeStore;
 import com.herzen.doc.parser.ParserDtos;
 import com.herzen.doc.repository.AssessmentJdbcRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
 import com.herzen.doc.analytics.LearningEventTypes;
@@ -15,45 +19,44 @@ import java.util.stream.Collectors;
 @Service
 public class AssessmentService {
     private final AssessmentJdbcRepository repository;
-
-    private final Map<String, AssessmentSession> sessions = new ConcurrentHashMap<>();
-    private final Map<String, List<AssessmentQuestion>> questionBankByCourse = new ConcurrentHashMap<>();
-    private final Map<String, Map<String, Set<String>>> chapterTermsByCourse = new ConcurrentHashMap<>();
-
-    public AssessmentService(AssessmentJdbcRepository repository) {
+    private final StudentKnowledgeStore knowledgeStore;
+    private final AssessmentSessionStore sessions;
+    private final QuestionBankBuilder questionBankBuilder;
+    private final String warmUpMode;
+
+    private final Map<String, CourseQuestionBank> questionBankByCourse = new ConcurrentHashMap<>();
+
+    public AssessmentService(AssessmentJdbcRepository repository,
+                             StudentKnowledgeStore knowledgeStore,
+                             AssessmentSessionStore sessions,
+                             QuestionBankBuilder questionBankBuilder,
+                             @Value("${assessment.question-bank.warm-up:lazy}") String warmUpMode) {
         this.repository = repository;
+        this.knowledgeStore = knowledgeStore;
+        this.sessions = sessions;
+        this.questionBankBuilder = questionBankBuilder;
+        this.warmUpMode = warmUpMode;
     }
 
     public void registerCourseQuestions(String courseId, ParserDtos.CourseDoc doc) {
-        List<AssessmentQuestion> questions = doc.terms().stream()
-                .map(term -> buildQuestion(term.key(), doc))
-                .toList();
-        questionBankByCourse.put(courseId, questions);
-
-        Map<String, Set<String>> chapterTerms = doc.chapters().stream()
-                .collect(Collectors.toMap(
-                        ParserDtos.ChapterDoc::id,
-                        chapter -> chapter.introducedTermKeys() == null ? Set.of() : new LinkedHashSet<>(chapter.introducedTermKeys()),
-                        (left, right) -> left,
-                        LinkedHashMap::new
-                ));
-        chapterTermsByCourse.put(courseId, chapterTerms);
+        CourseQuestionBank bank = questionBankBuilder.build(doc);
+        repository.replaceCourseQuestions(courseId, bank.questions());
+        questionBankByCourse.put(courseId, bank);
     }
 
-    public AssessmentStartResponse startAssessment(String studentId, String courseId, String chapterId) {
-        List<AssessmentQuestion> bank = questionBankByCourse.getOrDefault(courseId, List.of());
-        Set<String> chapterTerms = chapterTermsByCourse
-                .getOrDefault(courseId, Map.of())
-                .getOrDefault(chapterId, Set.of());
-
-        List<AssessmentQuestion> chapterScoped = chapterTerms.isEmpty()
-                ? List.of()
-                : bank.stream().filter(question -> chapterTerms.contains(question.termKey())).toList();
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpQuestionBanks() {
+        if (!"eager".equalsIgnoreCase(warmUpMode)) return;
+        repository.loadQuestionBankCourseIds().parallelStream().forEach(this::questionBank);
+    }
 
-        List<AssessmentQuestion> source = chapterScoped.isEmpty() ? bank : chapterScoped;
-        List<AssessmentQuestion> initial = source.stream().limit(5).toList();
+    public AssessmentStartResponse startAssessment(String studentId, String courseId, String chapterId) {
+        CourseQuestionBank bank = questionBank(courseId);
+        List<AssessmentQuestion> chapterScoped = bank.chapterQuestions(chapterId);
+        List<AssessmentQuestion> source = chapterScoped.isEmpty() ? bank.questions() : chapterScoped;
+        List<AssessmentQuestion> initial = source.size() <= 5 ? source : source.subList(0, 5);
         String sessionId = UUID.randomUUID().toString();
-        sessions.put(sessionId, new AssessmentSession(sessionId, courseId, Instant.now(),
+        sessions.create(new AssessmentSession(sessionId, courseId, Instant.now(),
                 initial.stream().map(AssessmentQuestion::termKey).collect(Collectors.toSet()), false));
         return new AssessmentStartResponse(sessionId, initial);
     }
@@ -64,12 +67,11 @@ public class AssessmentService {
             return new AssessmentSubmitResponse(false, List.of(), profile(studentId, courseId), List.of());
         }
 
-        List<AssessmentQuestion> bank = questionBankByCourse.getOrDefault(courseId, List.of());
-        Map<String, AssessmentQuestion> byId = bank.stream().collect(Collectors.toMap(AssessmentQuestion::questionId, q -> q, (a, b) -> a));
+        CourseQuestionBank bank = questionBank(courseId);
 
         Map<String, List<Boolean>> correctness = new HashMap<>();
         for (AssessmentAttempt attempt : attempts) {
-            AssessmentQuestion q = byId.get(attempt.questionId());
+            AssessmentQuestion q = bank.question(attempt.questionId());
             if (q == null) continue;
             boolean ok = Objects.equals(q.correctOption(), attempt.selectedOption());
             correctness.computeIfAbsent(q.termKey(), k -> new ArrayList<>()).add(ok);
@@ -80,14 +82,13 @@ public class AssessmentService {
             double confidence = Math.min(1.0, e.getValue().size() / 3.0);
             return new TermKnowledge(studentId, courseId, e.getKey(), mastery, confidence);
         }).toList();
-        repository.saveKnowledge(knowledge);
 
         List<LearningEvent> events = List.of(
                 new LearningEvent(studentId, courseId, null, LearningEventTypes.ANSWER_SUBMIT, Instant.now(),
                         "session=" + sessionId + ",answers=" + attempts.size() + ",terms=" + knowledge.size(), "default")
         );
-        repository.saveEvents(events);
 
+        List<LearningEvent> written = new ArrayList<>(events);
         List<AssessmentQuestion> refinement = List.of();
         boolean needsRefinement = false;
         if (!session.refinementIssued()) {
@@ -95,87 +96,41 @@ public class AssessmentService {
                     .filter(k -> k.confidenceScore() < 0.67)
                     .map(TermKnowledge::termKey)
                     .collect(Collectors.toCollection(LinkedHashSet::new));
-            refinement = bank.stream()
-                    .filter(q -> lowConfidenceTerms.contains(q.termKey()) && !session.askedTerms().contains(q.termKey()))
-                    .limit(3)
-                    .toList();
+            refinement = bank.questionsForTerms(lowConfidenceTerms, term -> !session.askedTerms().contains(term), 3);
             needsRefinement = !refinement.isEmpty();
 
             if (needsRefinement) {
                 Set<String> asked = new HashSet<>(session.askedTerms());
                 asked.addAll(refinement.stream().map(AssessmentQuestion::termKey).toList());
-                sessions.put(sessionId, new AssessmentSession(sessionId, courseId, session.startedAt(), asked, true));
-                repository.saveEvents(List.of(new LearningEvent(studentId, courseId, null, LearningEventTypes.ANSWER_SUBMIT, Instant.now(), "refinement_questions=" + refinement.size(), "default")));
+                sessions.update(new AssessmentSession(sessionId, courseId, session.startedAt(), asked, true));
+                written.add(new LearningEvent(studentId, courseId, null, LearningEventTypes.ANSWER_SUBMIT, Instant.now(), "refinement_questions=" + refinement.size(), "default"));
             }
         }
 
+        knowledgeStore.saveSubmission(courseId, knowledge, written);
         return new AssessmentSubmitResponse(needsRefinement, refinement, profile(studentId, courseId), events);
     }
 
-    public StudentKnowledgeProfile profile(String studentId, String courseId) {
-        Map<String, TermKnowledge> map = repository.loadKnowledge(studentId, courseId).stream()
-                .collect(Collectors.toMap(TermKnowledge::termKey, t -> t, (a, b) -> b));
-        return new StudentKnowledgeProfile(studentId, courseId, map);
+    CourseQuestionBank questionBank(String courseId) {
+        if (courseId == null) return CourseQuestionBank.EMPTY;
+        CourseQuestionBank bank = questionBankByCourse.computeIfAbsent(courseId, id -> {
+            List<AssessmentQuestion> questions = repository.loadCourseQuestions(id);
+            return questions.isEmpty() ? null : CourseQuestionBank.of(questions, repository.loadChapterIntroducedTerms(id));
+        });
+        return bank == null ? CourseQuestionBank.EMPTY : bank;
     }
 
-    private AssessmentQuestion buildQuestion(String termKey, ParserDtos.CourseDoc doc) {
-        String definition = doc.definitions().stream()
-                .filter(d -> d.termKey().equals(termKey))
-                .map(ParserDtos.DefinitionDoc::text)
-                .findFirst()
-                .orElse("Определение отсутствует");
-
-        String normalizedDefinition = normalizeDefinitionForPrompt(definition);
-        String prompt = "Какой термин соответствует определению: «" + normalizedDefinition + "»?";
-
-        String correctOption = resolveDisplayName(termKey, definition);
-        List<String> options = doc.definitions().stream()
-                .filter(d -> !d.termKey().equals(termKey))
-                .map(d -> resolveDisplayName(d.termKey(), d.text()))
-                .distinct()
-                .limit(3)
-                .collect(Collectors.toCollection(ArrayList::new));
-        options.add(correctOption);
-
-        while (options.size() < 4) {
-            options.add("Термин отсутствует");
-        }
-
-        Collections.shuffle(options);
-        return new AssessmentQuestion("assess-" + termKey, termKey, prompt, options, correctOption);
+    public AssessmentSessionStats sessionStats() {
+        return sessions.stats();
     }
 
-    private String normalizeDefinitionForPrompt(String definition) {
-        if (definition == null || definition.isBlank()) {
-            return "Определение отсутствует";
-        }
-
-        String normalized = definition.trim().replaceAll("\\s+", " ");
-        int separatorIndex = normalized.indexOf("—");
-        if (separatorIndex <= 0) {
-            separatorIndex = normalized.indexOf("-");
-        }
-
-        if (separatorIndex > 0 && separatorIndex + 1 < normalized.length()) {
-            return normalized.substring(separatorIndex + 1).trim();
-        }
-        return normalized;
+    public StudentKnowledgeStore.KnowledgeStoreStats knowledgeStats() {
+        return knowledgeStore.stats();
     }
 
-    private String resolveDisplayName(String termKey, String definition) {
-        if (definition != null && !definition.isBlank()) {
-            String normalized = definition.trim().replaceAll("\\s+", " ");
-            int separatorIndex = normalized.indexOf("—");
-            if (separatorIndex <= 0) {
-                separatorIndex = normalized.indexOf("-");
-            }
-            if (separatorIndex > 0) {
-                String candidate = normalized.substring(0, separatorIndex).trim();
-                if (!candidate.isEmpty()) {
-                    return candidate;
-                }
-            }
-        }
-        return termKey.replace('_', ' ');
+    public StudentKnowledgeProfile profile(String studentId, String courseId) {
+        Map<String, TermKnowledge> map = knowledgeStore.profile(studentId, courseId).stream()
+                .collect(Collectors.toMap(TermKnowledge::termKey, t -> t, (a, b) -> b));
+        return new StudentKnowledgeProfile(studentId, courseId, map);
     }
 }
@@ -0,0 +1,197 @@
+package com.herzen.doc.assessment;
+
+import com.herzen.doc.assessment.AssessmentModels.AssessmentSession;
+import com.herzen.doc.assessment.AssessmentModels.AssessmentSessionStats;
+import com.herzen.doc.repository.AssessmentJdbcRepository;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Component
+public class AssessmentSessionStore {
+    private final AssessmentJdbcRepository repository;
+    private final long ttlMs;
+    private final int maxSize;
+    private final boolean persistent;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<String> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<String> removed = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong restored = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong persistFailures = new AtomicLong();
+
+    public AssessmentSessionStore(AssessmentJdbcRepository repository,
+                                  @Value("${assessment.sessions.ttl-ms:7200000}") long ttlMs,
+                                  @Value("${assessment.sessions.max-size:10000}") int maxSize,
+                                  @Value("${assessment.sessions.persistence:memory}") String persistence) {
+        this.repository = repository;
+        this.ttlMs = ttlMs;
+        this.maxSize = Math.max(1, maxSize);
+        this.persistent = "h2".equalsIgnoreCase(persistence);
+    }
+
+    public void create(AssessmentSession session) {
+        entries.put(session.sessionId(), new Entry(session, System.currentTimeMillis()));
+        insertionOrder.add(session.sessionId());
+        created.incrementAndGet();
+        markDirty(session.sessionId());
+        evictOverflow();
+    }
+
+    public void update(AssessmentSession session) {
+        Entry entry = entries.get(session.sessionId());
+        if (entry == null) {
+            create(session);
+            return;
+        }
+        entry.session = session;
+        entry.lastAccessMs = System.currentTimeMillis();
+        markDirty(session.sessionId());
+    }
+
+    public AssessmentSession get(String sessionId) {
+        if (sessionId == null) return null;
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(sessionId);
+        if (entry == null && persistent) {
+            entry = restore(sessionId, now);
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        if (now - entry.lastAccessMs > ttlMs) {
+            if (entries.remove(sessionId, entry)) {
+                expired.incrementAndGet();
+                markRemoved(sessionId);
+            }
+            misses.incrementAndGet();
+            return null;
+        }
+        entry.lastAccessMs = now;
+        markDirty(sessionId);
+        hits.incrementAndGet();
+        return entry.session;
+    }
+
+    @Scheduled(fixedDelayString = "${assessment.sessions.sweep-delay-ms:60000}")
+    public void sweep() {
+        long cutoff = System.currentTimeMillis() - ttlMs;
+        entries.forEach((id, entry) -> {
+            if (entry.lastAccessMs < cutoff && entries.remove(id, entry)) {
+                expired.incrementAndGet();
+                markRemoved(id);
+            }
+        });
+        insertionOrder.removeIf(id -> !entries.containsKey(id));
+        // Rows only carry the access time of their last flush; persist pending accesses first so the
+        // bulk delete cannot remove a session that is still live in memory.
+        if (persistent && persistPending()) {
+            repository.deleteSessionsIdleBefore(cutoff);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${assessment.sessions.flush-delay-ms:2000}")
+    public void flush() {
+        if (persistent) persistPending();
+    }
+
+    private boolean persistPending() {
+        List<String> removedIds = drain(removed);
+        List<AssessmentJdbcRepository.SessionRow> rows = new ArrayList<>();
+        for (String id : drain(dirty)) {
+            Entry entry = entries.get(id);
+            if (entry != null) rows.add(new AssessmentJdbcRepository.SessionRow(entry.session, entry.lastAccessMs));
+        }
+        try {
+            repository.saveSessions(rows);
+            repository.deleteSessions(removedIds);
+            persisted.addAndGet(rows.size());
+            return true;
+        } catch (RuntimeException e) {
+            persistFailures.incrementAndGet();
+            rows.forEach(r -> dirty.add(r.session().sessionId()));
+            removed.addAll(removedIds);
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    public AssessmentSessionStats stats() {
+        return new AssessmentSessionStats(entries.size(), maxSize, ttlMs, persistent ? "h2" : "memory",
+                created.get(), hits.get(), misses.get(), expired.get(), evicted.get(), restored.get(),
+                dirty.size() + removed.size(), persisted.get(), persistFailures.get());
+    }
+
+    private Entry restore(String sessionId, long now) {
+        AssessmentJdbcRepository.SessionRow row = repository.loadSession(sessionId);
+        if (row == null || now - row.lastAccessMs() > ttlMs) return null;
+        Entry entry = new Entry(row.session(), row.lastAccessMs());
+        Entry existing = entries.putIfAbsent(sessionId, entry);
+        if (existing != null) return existing;
+        insertionOrder.add(sessionId);
+        restored.incrementAndGet();
+        evictOverflow();
+        return entry;
+    }
+
+    private void evictOverflow() {
+        while (entries.size() > maxSize) {
+            String oldest = insertionOrder.poll();
+            if (oldest == null) return;
+            if (entries.remove(oldest) != null) {
+                evicted.incrementAndGet();
+                markRemoved(oldest);
+            }
+        }
+    }
+
+    private void markDirty(String sessionId) {
+        if (!persistent) return;
+        removed.remove(sessionId);
+        dirty.add(sessionId);
+    }
+
+    private void markRemoved(String sessionId) {
+        if (!persistent) return;
+        dirty.remove(sessionId);
+        removed.add(sessionId);
+    }
+
+    private List<String> drain(Set<String> ids) {
+        List<String> drained = new ArrayList<>();
+        for (Iterator<String> it = ids.iterator(); it.hasNext(); ) {
+            drained.add(it.next());
+            it.remove();
+        }
+        return drained;
+    }
+
+    private static final class Entry {
+        private volatile AssessmentSession session;
+        private volatile long lastAccessMs;
+
+        private Entry(AssessmentSession session, long lastAccessMs) {
+            this.session = session;
+            this.lastAccessMs = lastAccessMs;
+        }
+    }
+}
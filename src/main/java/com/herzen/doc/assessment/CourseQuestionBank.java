@@ -0,0 +1,86 @@
+package com.herzen.doc.assessment;
+
+import com.herzen.doc.assessment.AssessmentModels.AssessmentQuestion;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+public final class CourseQuestionBank {
+    public static final CourseQuestionBank EMPTY = of(List.of(), Map.of());
+
+    private final List<AssessmentQuestion> questions;
+    private final Map<String, AssessmentQuestion> byId;
+    private final Map<String, Integer> ordinalById;
+    private final Map<String, List<AssessmentQuestion>> byTerm;
+    private final Map<String, List<AssessmentQuestion>> byChapter;
+
+    private CourseQuestionBank(List<AssessmentQuestion> questions,
+                               Map<String, AssessmentQuestion> byId,
+                               Map<String, Integer> ordinalById,
+                               Map<String, List<AssessmentQuestion>> byTerm,
+                               Map<String, List<AssessmentQuestion>> byChapter) {
+        this.questions = questions;
+        this.byId = byId;
+        this.ordinalById = ordinalById;
+        this.byTerm = byTerm;
+        this.byChapter = byChapter;
+    }
+
+    public static CourseQuestionBank of(List<AssessmentQuestion> questions, Map<String, ? extends Collection<String>> chapterTerms) {
+        Map<String, AssessmentQuestion> byId = new HashMap<>();
+        Map<String, Integer> ordinalById = new HashMap<>();
+        Map<String, List<AssessmentQuestion>> byTerm = new HashMap<>();
+        for (int i = 0; i < questions.size(); i++) {
+            AssessmentQuestion question = questions.get(i);
+            if (byId.putIfAbsent(question.questionId(), question) == null) {
+                ordinalById.put(question.questionId(), i);
+            }
+            byTerm.computeIfAbsent(question.termKey(), k -> new ArrayList<>()).add(question);
+        }
+
+        Map<String, List<AssessmentQuestion>> byChapter = new HashMap<>();
+        chapterTerms.forEach((chapterId, terms) -> {
+            if (terms == null || terms.isEmpty()) return;
+            List<AssessmentQuestion> scoped = new ArrayList<>();
+            for (String term : new LinkedHashSet<>(terms)) {
+                scoped.addAll(byTerm.getOrDefault(term, List.of()));
+            }
+            scoped.sort(Comparator.comparingInt(q -> ordinalById.getOrDefault(q.questionId(), Integer.MAX_VALUE)));
+            byChapter.put(chapterId, List.copyOf(scoped));
+        });
+
+        byTerm.replaceAll((term, list) -> List.copyOf(list));
+        return new CourseQuestionBank(List.copyOf(questions), Map.copyOf(byId), Map.copyOf(ordinalById),
+                Map.copyOf(byTerm), Map.copyOf(byChapter));
+    }
+
+    public List<AssessmentQuestion> questions() {
+        return questions;
+    }
+
+    public boolean isEmpty() {
+        return questions.isEmpty();
+    }
+
+    public AssessmentQuestion question(String questionId) {
+        return questionId == null ? null : byId.get(questionId);
+    }
+
+    public List<AssessmentQuestion> chapterQuestions(String chapterId) {
+        return chapterId == null ? List.of() : byChapter.getOrDefault(chapterId, List.of());
+    }
+
+    public List<AssessmentQuestion> termQuestions(String termKey) {
+        return byTerm.getOrDefault(termKey, List.of());
+    }
+
+    public List<AssessmentQuestion> questionsForTerms(Collection<String> termKeys, Predicate<String> termFilter, int limit) {
+        List<AssessmentQuestion> matched = new ArrayList<>();
+        for (String term : termKeys) {
+            if (!termFilter.test(term)) continue;
+            matched.addAll(termQuestions(term));
+        }
+        matched.sort(Comparator.comparingInt(q -> ordinalById.getOrDefault(q.questionId(), Integer.MAX_VALUE)));
+        return matched.size() <= limit ? List.copyOf(matched) : List.copyOf(matched.subList(0, limit));
+    }
+}
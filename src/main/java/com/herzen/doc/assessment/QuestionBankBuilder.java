@@ -0,0 +1,112 @@
+package com.herzen.doc.assessment;
+
+import com.herzen.doc.assessment.AssessmentModels.AssessmentQuestion;
+import com.herzen.doc.parser.ParserDtos;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@Component
+public class QuestionBankBuilder {
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final String MISSING_DEFINITION = "Определение отсутствует";
+    private static final String MISSING_TERM = "Термин отсутствует";
+
+    private final int parallelThreshold;
+
+    public QuestionBankBuilder(@Value("${assessment.question-bank.parallel-threshold:2000}") int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public CourseQuestionBank build(ParserDtos.CourseDoc doc) {
+        Map<String, DefinitionEntry> definitionsByTerm = new HashMap<>();
+        Map<String, DistractorCandidate> candidatesByName = new LinkedHashMap<>();
+        for (ParserDtos.DefinitionDoc definition : doc.definitions()) {
+            DefinitionEntry entry = DefinitionEntry.resolve(definition.termKey(), definition.text());
+            definitionsByTerm.putIfAbsent(entry.termKey(), entry);
+            candidatesByName.computeIfAbsent(entry.displayName(), DistractorCandidate::new).termKeys().add(entry.termKey());
+        }
+        List<DistractorCandidate> candidates = List.copyOf(candidatesByName.values());
+
+        Stream<ParserDtos.TermDoc> terms = doc.terms().size() >= parallelThreshold
+                ? doc.terms().parallelStream()
+                : doc.terms().stream();
+        List<AssessmentQuestion> questions = terms
+                .map(term -> buildQuestion(term.key(), definitionsByTerm, candidates))
+                .toList();
+
+        Map<String, Set<String>> chapterTerms = doc.chapters().stream()
+                .collect(Collectors.toMap(
+                        ParserDtos.ChapterDoc::id,
+                        chapter -> chapter.introducedTermKeys() == null ? Set.of() : new LinkedHashSet<>(chapter.introducedTermKeys()),
+                        (left, right) -> left,
+                        LinkedHashMap::new
+                ));
+        return CourseQuestionBank.of(questions, chapterTerms);
+    }
+
+    private AssessmentQuestion buildQuestion(String termKey,
+                                             Map<String, DefinitionEntry> definitionsByTerm,
+                                             List<DistractorCandidate> candidates) {
+        DefinitionEntry definition = definitionsByTerm.get(termKey);
+        if (definition == null) {
+            definition = DefinitionEntry.resolve(termKey, MISSING_DEFINITION);
+        }
+        String prompt = "Какой термин соответствует определению: «" + definition.promptText() + "»?";
+
+        List<String> options = new ArrayList<>(4);
+        for (DistractorCandidate candidate : candidates) {
+            if (options.size() == 3) break;
+            if (candidate.appliesTo(termKey)) {
+                options.add(candidate.displayName());
+            }
+        }
+        options.add(definition.displayName());
+
+        while (options.size() < 4) {
+            options.add(MISSING_TERM);
+        }
+
+        Collections.shuffle(options, ThreadLocalRandom.current());
+        return new AssessmentQuestion("assess-" + termKey, termKey, prompt, options, definition.displayName());
+    }
+
+    private record DefinitionEntry(String termKey, String displayName, String promptText) {
+        static DefinitionEntry resolve(String termKey, String text) {
+            String fallbackName = termKey.replace('_', ' ');
+            if (text == null || text.isBlank()) {
+                return new DefinitionEntry(termKey, fallbackName, MISSING_DEFINITION);
+            }
+
+            String normalized = WHITESPACE.matcher(text.trim()).replaceAll(" ");
+            int separatorIndex = normalized.indexOf("—");
+            if (separatorIndex <= 0) {
+                separatorIndex = normalized.indexOf("-");
+            }
+            if (separatorIndex <= 0) {
+                return new DefinitionEntry(termKey, fallbackName, normalized);
+            }
+
+            String candidate = normalized.substring(0, separatorIndex).trim();
+            String promptText = separatorIndex + 1 < normalized.length()
+                    ? normalized.substring(separatorIndex + 1).trim()
+                    : normalized;
+            return new DefinitionEntry(termKey, candidate.isEmpty() ? fallbackName : candidate, promptText);
+        }
+    }
+
+    private record DistractorCandidate(String displayName, Set<String> termKeys) {
+        DistractorCandidate(String displayName) {
+            this(displayName, new HashSet<>());
+        }
+
+        boolean appliesTo(String termKey) {
+            return termKeys.size() > 1 || !termKeys.contains(termKey);
+        }
+    }
+}
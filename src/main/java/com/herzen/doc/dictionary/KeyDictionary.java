@@ -0,0 +1,30 @@
+package com.herzen.doc.dictionary;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class KeyDictionary {
+    private final KeyInterner courses = new KeyInterner();
+    private final Map<String, CourseKeys> courseKeys = new ConcurrentHashMap<>();
+
+    public KeyInterner courses() {
+        return courses;
+    }
+
+    public CourseKeys course(String courseId) {
+        return courseKeys.computeIfAbsent(courses.intern(courseId), id -> new CourseKeys(new KeyInterner(), new KeyInterner()));
+    }
+
+    public DictionaryStats stats() {
+        long chapters = courseKeys.values().stream().mapToLong(k -> k.chapters().size()).sum();
+        long terms = courseKeys.values().stream().mapToLong(k -> k.terms().size()).sum();
+        return new DictionaryStats(courses.size(), chapters, terms);
+    }
+
+    public record CourseKeys(KeyInterner chapters, KeyInterner terms) {}
+
+    public record DictionaryStats(int courses, long chapters, long terms) {}
+}
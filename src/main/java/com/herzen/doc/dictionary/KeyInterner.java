@@ -0,0 +1,46 @@
+package com.herzen.doc.dictionary;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+public final class KeyInterner {
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] values = new String[16];
+    private int size;
+
+    public int id(String value) {
+        Integer id = ids.get(value);
+        return id != null ? id : assign(value);
+    }
+
+    public int lookup(String value) {
+        if (value == null) return -1;
+        Integer id = ids.get(value);
+        return id == null ? -1 : id;
+    }
+
+    public String value(int id) {
+        String[] current = values;
+        return id >= 0 && id < current.length ? current[id] : null;
+    }
+
+    public String intern(String value) {
+        return value == null ? null : value(id(value));
+    }
+
+    public int size() {
+        return ids.size();
+    }
+
+    private synchronized int assign(String value) {
+        Integer existing = ids.get(value);
+        if (existing != null) return existing;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = value;
+        ids.put(value, size);
+        return size++;
+    }
+}
@@ -0,0 +1,99 @@
+package com.herzen.doc.graph;
+
+import com.herzen.doc.dictionary.KeyDictionary.CourseKeys;
+import com.herzen.doc.dictionary.KeyInterner;
+import com.herzen.doc.graph.KnowledgeGraphModels.*;
+
+import java.util.*;
+
+final class CompiledGraph {
+    private static final int[] NONE = new int[0];
+
+    private final CourseKeys keys;
+    private final int[] chapters;
+    private final int[][] requires;
+    private final int[][] uses;
+
+    private CompiledGraph(CourseKeys keys, int[] chapters, int[][] requires, int[][] uses) {
+        this.keys = keys;
+        this.chapters = chapters;
+        this.requires = requires;
+        this.uses = uses;
+    }
+
+    static CompiledGraph compile(GraphModel model, CourseKeys keys) {
+        KeyInterner chapterKeys = keys.chapters();
+        KeyInterner termKeys = keys.terms();
+        Map<Integer, SortedSet<String>> requiredBy = new HashMap<>();
+        Map<Integer, SortedSet<String>> usedBy = new HashMap<>();
+        for (GraphEdge edge : model.edges()) {
+            int from = chapterKeys.id(edge.from());
+            if (edge.type() == EdgeType.REQUIRES) {
+                chapterKeys.id(edge.to());
+                requiredBy.computeIfAbsent(from, k -> new TreeSet<>()).add(edge.to());
+            } else {
+                termKeys.id(edge.to());
+                if (edge.type() == EdgeType.USES) usedBy.computeIfAbsent(from, k -> new TreeSet<>()).add(edge.to());
+            }
+        }
+        model.chapterNodes().forEach(chapterKeys::id);
+
+        int size = chapterKeys.size();
+        int[][] requires = new int[size][];
+        int[][] uses = new int[size][];
+        Arrays.fill(requires, NONE);
+        Arrays.fill(uses, NONE);
+        requiredBy.forEach((chapter, targets) -> requires[chapter] = targets.stream().mapToInt(chapterKeys::id).toArray());
+        usedBy.forEach((chapter, targets) -> uses[chapter] = targets.stream().mapToInt(termKeys::id).toArray());
+        int[] chapters = model.chapterNodes().stream().sorted().mapToInt(chapterKeys::id).toArray();
+        return new CompiledGraph(keys, chapters, requires, uses);
+    }
+
+    List<String> eligible(StudentProfile profile) {
+        BitSet completed = ids(profile.completedChapterIds(), keys.chapters());
+        BitSet mastered = ids(profile.masteredTermKeys(), keys.terms());
+        List<String> eligible = new ArrayList<>();
+        for (int chapter : chapters) {
+            if (completed.get(chapter)) continue;
+            if (allSet(requires[chapter], completed) && allSet(uses[chapter], mastered)) {
+                eligible.add(keys.chapters().value(chapter));
+            }
+        }
+        return eligible;
+    }
+
+    Eligibility explain(String chapterId, StudentProfile profile) {
+        int chapter = keys.chapters().lookup(chapterId);
+        if (chapter < 0 || chapter >= requires.length) {
+            return new Eligibility(chapterId, true, List.of(), List.of());
+        }
+        List<String> missingChapters = missing(requires[chapter], keys.chapters(), profile.completedChapterIds());
+        List<String> missingTerms = missing(uses[chapter], keys.terms(), profile.masteredTermKeys());
+        return new Eligibility(chapterId, missingChapters.isEmpty() && missingTerms.isEmpty(), missingChapters, missingTerms);
+    }
+
+    private static BitSet ids(Set<String> values, KeyInterner interner) {
+        BitSet bits = new BitSet();
+        for (String value : values) {
+            int id = interner.lookup(value);
+            if (id >= 0) bits.set(id);
+        }
+        return bits;
+    }
+
+    private static boolean allSet(int[] ids, BitSet bits) {
+        for (int id : ids) {
+            if (!bits.get(id)) return false;
+        }
+        return true;
+    }
+
+    private static List<String> missing(int[] ids, KeyInterner interner, Set<String> present) {
+        List<String> missing = new ArrayList<>();
+        for (int id : ids) {
+            String value = interner.value(id);
+            if (!present.contains(value)) missing.add(value);
+        }
+        return missing;
+    }
+}
@@ -1,5 +1,6 @@
 package com.herzen.doc.graph;
 
+import com.herzen.doc.dictionary.KeyDictionary;
 import com.herzen.doc.domain.DomainModels;
 import com.herzen.doc.graph.KnowledgeGraphModels.*;
 import com.herzen.doc.repository.GraphJdbcRepository;
@@ -14,10 +15,12 @@ import java.util.stream.Collectors;
 @Service
 public class KnowledgeGraphService {
     private final GraphJdbcRepository repository;
-    private final Map<String, GraphModel> graphCache = new ConcurrentHashMap<>();
+    private final KeyDictionary dictionary;
+    private final Map<String, CompiledGraph> graphCache = new ConcurrentHashMap<>();
 
-    public KnowledgeGraphService(GraphJdbcRepository repository) {
+    public KnowledgeGraphService(GraphJdbcRepository repository, KeyDictionary dictionary) {
         this.repository = repository;
+        this.dictionary = dictionary;
     }
 
     public GraphLoadResult loadAndPersist(String courseId,
@@ -60,76 +63,56 @@ public class KnowledgeGraphService {
                     .toList();
 
             repository.replaceCourseGraph(courseId, chapters, prereqRows, termRows);
-            graphCache.put(courseId, model);
+            graphCache.put(courseId, CompiledGraph.compile(model, dictionary.course(courseId)));
         }
         return new GraphLoadResult(model, issues);
     }
 
     public List<String> eligibleChapters(String courseId, StudentProfile profile) {
-        GraphModel model = readModel(courseId);
-        if (model == null) return List.of();
-
-        return model.chapterNodes().stream()
-                .filter(ch -> !profile.completedChapterIds().contains(ch))
-                .filter(ch -> explainChapterEligibility(model, ch, profile).eligible())
-                .sorted()
-                .toList();
+        CompiledGraph graph = readGraph(courseId);
+        if (graph == null) return List.of();
+        return graph.eligible(profile);
     }
 
     public Eligibility explainChapter(String courseId, String chapterId, StudentProfile profile) {
-        GraphModel model = readModel(courseId);
-        if (model == null) {
+        CompiledGraph graph = readGraph(courseId);
+        if (graph == null) {
             return new Eligibility(chapterId, false, List.of("COURSE_GRAPH_NOT_FOUND"), List.of());
         }
-        return explainChapterEligibility(model, chapterId, profile);
+        return graph.explain(chapterId, profile);
     }
 
-    private Eligibility explainChapterEligibility(GraphModel model, String chapterId, StudentProfile profile) {
-        List<String> missingChapters = model.edges().stream()
-                .filter(e -> e.type() == EdgeType.REQUIRES && e.from().equals(chapterId))
-                .map(GraphEdge::to)
-                .filter(req -> !profile.completedChapterIds().contains(req))
-                .distinct()
-                .sorted()
-                .toList();
-
-        List<String> missingTerms = model.edges().stream()
-                .filter(e -> e.type() == EdgeType.USES && e.from().equals(chapterId))
-                .map(GraphEdge::to)
-                .filter(term -> !profile.masteredTermKeys().contains(term))
-                .distinct()
-                .sorted()
-                .toList();
-
-        return new Eligibility(chapterId, missingChapters.isEmpty() && missingTerms.isEmpty(), missingChapters, missingTerms);
-    }
-
-    private GraphModel readModel(String courseId) {
-        GraphModel cached = graphCache.get(courseId);
+    private CompiledGraph readGraph(String courseId) {
+        CompiledGraph cached = graphCache.get(courseId);
         if (cached != null) return cached;
 
         List<ChapterPrerequisiteRow> prereq = repository.loadPrerequisites(courseId);
         List<ChapterTermRow> termRows = repository.loadChapterTerms(courseId);
         if (prereq.isEmpty() && termRows.isEmpty()) return null;
 
+        KeyDictionary.CourseKeys keys = dictionary.course(courseId);
         Set<String> chapters = new HashSet<>();
         Set<String> terms = new HashSet<>();
         List<GraphEdge> edges = new ArrayList<>();
 
         for (ChapterPrerequisiteRow r : prereq) {
-            chapters.add(r.chapterId());
-            chapters.add(r.prerequisiteChapterId());
-            edges.add(new GraphEdge(r.chapterId(), r.prerequisiteChapterId(), EdgeType.REQUIRES));
+            String chapter = keys.chapters().intern(r.chapterId());
+            String required = keys.chapters().intern(r.prerequisiteChapterId());
+            chapters.add(chapter);
+            chapters.add(required);
+            edges.add(new GraphEdge(chapter, required, EdgeType.REQUIRES));
         }
         for (ChapterTermRow r : termRows) {
-            chapters.add(r.chapterId());
-            terms.add(r.termKey());
-            edges.add(new GraphEdge(r.chapterId(), r.termKey(), r.role()));
+            String chapter = keys.chapters().intern(r.chapterId());
+            String term = keys.terms().intern(r.termKey());
+            chapters.add(chapter);
+            terms.add(term);
+            edges.add(new GraphEdge(chapter, term, r.role()));
         }
 
-        GraphModel model = new GraphModel(courseId, chapters, terms, edges);
-        graphCache.put(courseId, model);
-        return model;
+        CompiledGraph graph = CompiledGraph.compile(new GraphModel(courseId, chapters, terms, edges), keys);
+        graphCache.put(courseId, graph);
+        return graph;
     }
 
     private List<GraphValidationIssue> validateGraph(GraphModel model) {
@@ -0,0 +1,194 @@
+package com.herzen.doc.knowledge;
+
+import com.herzen.doc.assessment.AssessmentModels.TermKnowledge;
+import com.herzen.doc.dictionary.KeyDictionary;
+import com.herzen.doc.dictionary.KeyInterner;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public final class CourseKnowledgeMatrix {
+    private static final int DICTIONARY_ENTRY_BYTES = 64;
+
+    private final String courseId;
+    private final KeyInterner termKeysInterner;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // Student ids are interned per matrix, with the dense id doubling as the row, so they are released
+    // together with the matrix when the store evicts the course.
+    private final KeyInterner studentRows = new KeyInterner();
+    private final Map<String, Integer> termIndex = new HashMap<>();
+    private final List<String> termKeys = new ArrayList<>();
+
+    private int studentCapacity;
+    private int termCapacity;
+    private double[] mastery;
+    private double[] confidence;
+    private volatile long lastAccess;
+
+    public CourseKnowledgeMatrix(KeyDictionary dictionary, String courseId, int expectedStudents, int expectedTerms) {
+        this.courseId = courseId;
+        this.termKeysInterner = dictionary.course(courseId).terms();
+        this.studentCapacity = Math.max(4, expectedStudents);
+        this.termCapacity = Math.max(4, expectedTerms);
+        this.mastery = emptyCells(studentCapacity * termCapacity);
+        this.confidence = emptyCells(studentCapacity * termCapacity);
+    }
+
+    public static CourseKnowledgeMatrix of(KeyDictionary dictionary, String courseId, List<TermKnowledge> rows) {
+        Set<String> students = new HashSet<>();
+        Set<String> terms = new HashSet<>();
+        for (TermKnowledge row : rows) {
+            students.add(row.studentId());
+            terms.add(row.termKey());
+        }
+        CourseKnowledgeMatrix matrix = new CourseKnowledgeMatrix(dictionary, courseId, students.size(), terms.size());
+        matrix.apply(rows);
+        return matrix;
+    }
+
+    public String courseId() {
+        return courseId;
+    }
+
+    public void apply(Collection<TermKnowledge> knowledge) {
+        lock.writeLock().lock();
+        try {
+            for (TermKnowledge k : knowledge) {
+                if (!courseId.equals(k.courseId())) continue;
+                int row = studentRow(k.studentId());
+                int column = termColumn(k.termKey());
+                int cell = row * termCapacity + column;
+                mastery[cell] = k.masteryScore();
+                confidence[cell] = k.confidenceScore();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<TermKnowledge> profile(String studentId) {
+        lock.readLock().lock();
+        try {
+            int row = studentRows.lookup(studentId);
+            if (row < 0) return List.of();
+            List<TermKnowledge> knowledge = new ArrayList<>();
+            int base = row * termCapacity;
+            for (int column = 0; column < termKeys.size(); column++) {
+                double m = mastery[base + column];
+                if (!Double.isNaN(m)) {
+                    knowledge.add(new TermKnowledge(studentId, courseId, termKeys.get(column), m, confidence[base + column]));
+                }
+            }
+            return knowledge;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Double> mastery(String studentId) {
+        lock.readLock().lock();
+        try {
+            int row = studentRows.lookup(studentId);
+            if (row < 0) return new HashMap<>();
+            Map<String, Double> values = new HashMap<>();
+            int base = row * termCapacity;
+            for (int column = 0; column < termKeys.size(); column++) {
+                double m = mastery[base + column];
+                if (!Double.isNaN(m)) values.put(termKeys.get(column), m);
+            }
+            return values;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public KnowledgeCohort similarCohort(String studentId, Map<String, Double> targetMastery, double threshold) {
+        KnowledgeCohort.Builder cohort = new KnowledgeCohort.Builder(studentId, targetMastery, threshold);
+        if (!cohort.hasTarget()) return KnowledgeCohort.EMPTY;
+        lock.readLock().lock();
+        try {
+            for (int row = 0; row < studentRows.size(); row++) {
+                int base = row * termCapacity;
+                for (int column = 0; column < termKeys.size(); column++) {
+                    double m = mastery[base + column];
+                    if (!Double.isNaN(m)) cohort.add(termKeys.get(column), m);
+                }
+                cohort.endStudent(studentRows.value(row));
+            }
+            return cohort.build();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Size {@link #estimatedBytes()} would report for a matrix loaded with these distinct counts. */
+    public static long estimatedBytes(int students, int terms) {
+        return 16L * Math.max(4, students) * Math.max(4, terms) + (long) DICTIONARY_ENTRY_BYTES * (students + terms);
+    }
+
+    public int studentCount() {
+        lock.readLock().lock();
+        try {
+            return studentRows.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long estimatedBytes() {
+        lock.readLock().lock();
+        try {
+            return 16L * studentCapacity * termCapacity + (long) DICTIONARY_ENTRY_BYTES * (studentRows.size() + termKeys.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    long lastAccess() {
+        return lastAccess;
+    }
+
+    void touch(long tick) {
+        lastAccess = tick;
+    }
+
+    private int studentRow(String studentId) {
+        int row = studentRows.lookup(studentId);
+        if (row >= 0) return row;
+        if (studentRows.size() == studentCapacity) {
+            resize(studentCapacity * 2, termCapacity);
+        }
+        return studentRows.id(studentId);
+    }
+
+    private int termColumn(String termKey) {
+        Integer column = termIndex.get(termKey);
+        if (column != null) return column;
+        if (termKeys.size() == termCapacity) {
+            resize(studentCapacity, termCapacity * 2);
+        }
+        String interned = termKeysInterner.intern(termKey);
+        termIndex.put(interned, termKeys.size());
+        termKeys.add(interned);
+        return termKeys.size() - 1;
+    }
+
+    private void resize(int students, int terms) {
+        double[] newMastery = emptyCells(students * terms);
+        double[] newConfidence = emptyCells(students * terms);
+        for (int row = 0; row < studentRows.size(); row++) {
+            System.arraycopy(mastery, row * termCapacity, newMastery, row * terms, termKeys.size());
+            System.arraycopy(confidence, row * termCapacity, newConfidence, row * terms, termKeys.size());
+        }
+        mastery = newMastery;
+        confidence = newConfidence;
+        studentCapacity = students;
+        termCapacity = terms;
+    }
+
+    private static double[] emptyCells(int size) {
+        double[] cells = new double[size];
+        Arrays.fill(cells, Double.NaN);
+        return cells;
+    }
+}
@@ -0,0 +1,40 @@
+package com.herzen.doc.knowledge;
+
+import com.herzen.doc.assessment.AssessmentModels.TermKnowledge;
+import com.herzen.doc.repository.AssessmentJdbcRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class CourseStudentCounter {
+    private final AssessmentJdbcRepository repository;
+    private final Map<String, Set<String>> studentsByCourse = new ConcurrentHashMap<>();
+
+    public CourseStudentCounter(AssessmentJdbcRepository repository) {
+        this.repository = repository;
+    }
+
+    public long studentCount(String courseId) {
+        if (courseId == null) return 0;
+        return students(courseId).size();
+    }
+
+    public void recordKnowledge(Collection<TermKnowledge> knowledge) {
+        for (TermKnowledge k : knowledge) {
+            if (k.courseId() == null || k.studentId() == null) continue;
+            students(k.courseId()).add(k.studentId());
+        }
+    }
+
+    private Set<String> students(String courseId) {
+        return studentsByCourse.computeIfAbsent(courseId, id -> {
+            Set<String> seeded = ConcurrentHashMap.newKeySet();
+            seeded.addAll(repository.loadCourseStudentIds(id));
+            return seeded;
+        });
+    }
+}
@@ -0,0 +1,95 @@
+package com.herzen.doc.knowledge;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Students whose mastery vector is close to a target, kept as per-term mastery totals over the members
+ * so the cohort stays proportional to the course's terms rather than its students.
+ */
+public final class KnowledgeCohort {
+    public static final KnowledgeCohort EMPTY = new KnowledgeCohort(0, Map.of(), Map.of());
+
+    private final int size;
+    private final Map<String, Double> masterySums;
+    private final Map<String, Integer> masteryCounts;
+
+    private KnowledgeCohort(int size, Map<String, Double> masterySums, Map<String, Integer> masteryCounts) {
+        this.size = size;
+        this.masterySums = masterySums;
+        this.masteryCounts = masteryCounts;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double meanMastery(Collection<String> termKeys) {
+        double total = 0.0;
+        int count = 0;
+        for (String term : termKeys) {
+            Integer n = masteryCounts.get(term);
+            if (n == null) continue;
+            total += masterySums.get(term);
+            count += n;
+        }
+        return count == 0 ? 0.0 : total / count;
+    }
+
+    /**
+     * Folds students one at a time: callers {@link #add} a student's known term masteries and
+     * {@link #endStudent} once they are all in.
+     */
+    static final class Builder {
+        private final String excludedStudentId;
+        private final Map<String, Double> target;
+        private final double targetNorm;
+        private final double threshold;
+        private final Map<String, Double> sums = new HashMap<>();
+        private final Map<String, Integer> counts = new HashMap<>();
+        private final Map<String, Double> current = new HashMap<>();
+        private double dot;
+        private double norm;
+        private int size;
+
+        Builder(String excludedStudentId, Map<String, Double> target, double threshold) {
+            this.excludedStudentId = excludedStudentId;
+            this.target = target;
+            this.targetNorm = target.values().stream().mapToDouble(v -> v * v).sum();
+            this.threshold = threshold;
+        }
+
+        boolean hasTarget() {
+            return targetNorm != 0.0;
+        }
+
+        void add(String termKey, double mastery) {
+            current.put(termKey, mastery);
+            dot += target.getOrDefault(termKey, 0.0) * mastery;
+            norm += mastery * mastery;
+        }
+
+        void endStudent(String studentId) {
+            if (!studentId.equals(excludedStudentId) && norm != 0.0
+                    && dot / (Math.sqrt(targetNorm) * Math.sqrt(norm)) >= threshold) {
+                current.forEach((term, mastery) -> {
+                    sums.merge(term, mastery, Double::sum);
+                    counts.merge(term, 1, Integer::sum);
+                });
+                size++;
+            }
+            current.clear();
+            dot = 0.0;
+            norm = 0.0;
+        }
+
+        KnowledgeCohort build() {
+            return size == 0 ? EMPTY : new KnowledgeCohort(size, sums, counts);
+        }
+    }
+}
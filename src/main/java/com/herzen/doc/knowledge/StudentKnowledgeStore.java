@@ -0,0 +1,201 @@
+package com.herzen.doc.knowledge;
+
+import com.herzen.doc.assessment.AssessmentModels.HistoricalTally;
+import com.herzen.doc.assessment.AssessmentModels.LearningEvent;
+import com.herzen.doc.assessment.AssessmentModels.TermKnowledge;
+import com.herzen.doc.dictionary.KeyDictionary;
+import com.herzen.doc.repository.AssessmentJdbcRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+@Component
+public class StudentKnowledgeStore {
+    private final AssessmentJdbcRepository repository;
+    private final CourseStudentCounter studentCounter;
+    private final KeyDictionary dictionary;
+    private final long maxBytes;
+
+    private final Map<String, CourseKnowledgeMatrix> courses = new ConcurrentHashMap<>();
+    private final Map<String, ReentrantLock> courseLocks = new ConcurrentHashMap<>();
+    private final Set<String> oversized = ConcurrentHashMap.newKeySet();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bypasses = new AtomicLong();
+
+    public StudentKnowledgeStore(AssessmentJdbcRepository repository,
+                                 CourseStudentCounter studentCounter,
+                                 KeyDictionary dictionary,
+                                 @Value("${knowledge.cache.max-bytes:268435456}") long maxBytes) {
+        this.repository = repository;
+        this.studentCounter = studentCounter;
+        this.dictionary = dictionary;
+        this.maxBytes = maxBytes;
+    }
+
+    public void saveSubmission(String courseId, List<TermKnowledge> knowledge, List<LearningEvent> events) {
+        write(Collections.singleton(courseId), () -> {
+            repository.saveSubmission(knowledge, events);
+            return knowledge;
+        });
+    }
+
+    public void saveHistory(List<HistoricalTally> tallies, List<LearningEvent> events) {
+        Set<String> courseIds = tallies.stream().map(HistoricalTally::courseId).collect(Collectors.toSet());
+        write(courseIds, () -> repository.saveHistory(tallies, events));
+    }
+
+    /**
+     * Runs a knowledge write and applies its rows to the cached matrices while holding the locks of the
+     * courses it touches, so the cache sees writes to a course in the order they were committed.
+     */
+    private void write(Set<String> courseIds, Supplier<Collection<TermKnowledge>> write) {
+        List<ReentrantLock> locks = courseIds.stream().filter(Objects::nonNull).sorted().map(this::courseLock).toList();
+        locks.forEach(ReentrantLock::lock);
+        try {
+            recordWritten(write.get());
+        } finally {
+            locks.forEach(ReentrantLock::unlock);
+        }
+        if (courseIds.stream().anyMatch(id -> id != null && courses.containsKey(id))) {
+            enforceBudget(null);
+        }
+    }
+
+    private void recordWritten(Collection<TermKnowledge> knowledge) {
+        if (knowledge.isEmpty()) return;
+        studentCounter.recordKnowledge(knowledge);
+        Map<String, List<TermKnowledge>> byCourse = knowledge.stream()
+                .filter(k -> k.courseId() != null)
+                .collect(Collectors.groupingBy(TermKnowledge::courseId));
+        byCourse.forEach((courseId, rows) -> {
+            CourseKnowledgeMatrix matrix = courses.get(courseId);
+            if (matrix != null) matrix.apply(rows);
+        });
+    }
+
+    public List<TermKnowledge> profile(String studentId, String courseId) {
+        CourseKnowledgeMatrix matrix = cached(courseId);
+        return matrix == null ? repository.loadKnowledge(studentId, courseId) : matrix.profile(studentId);
+    }
+
+    public Map<String, Double> mastery(String studentId, String courseId) {
+        CourseKnowledgeMatrix matrix = cached(courseId);
+        if (matrix != null) return matrix.mastery(studentId);
+        return repository.loadKnowledge(studentId, courseId).stream()
+                .collect(Collectors.toMap(TermKnowledge::termKey, TermKnowledge::masteryScore, (a, b) -> b));
+    }
+
+    public KnowledgeCohort similarCohort(String studentId, String courseId, Map<String, Double> targetMastery, double threshold) {
+        CourseKnowledgeMatrix matrix = cached(courseId);
+        if (matrix != null) return matrix.similarCohort(studentId, targetMastery, threshold);
+        if (courseId == null) return KnowledgeCohort.EMPTY;
+
+        // Courses over the budget are folded row by row instead of being loaded into a dense matrix.
+        KnowledgeCohort.Builder cohort = new KnowledgeCohort.Builder(studentId, targetMastery, threshold);
+        if (!cohort.hasTarget()) return KnowledgeCohort.EMPTY;
+        String[] current = new String[1];
+        repository.scanCourseKnowledge(courseId, k -> {
+            if (current[0] != null && !current[0].equals(k.studentId())) cohort.endStudent(current[0]);
+            current[0] = k.studentId();
+            cohort.add(k.termKey(), k.masteryScore());
+        });
+        if (current[0] != null) cohort.endStudent(current[0]);
+        return cohort.build();
+    }
+
+    public void evict(String courseId) {
+        if (courses.remove(courseId) != null) evictions.incrementAndGet();
+        oversized.remove(courseId);
+    }
+
+    public KnowledgeStoreStats stats() {
+        return new KnowledgeStoreStats(courses.size(), totalBytes(), maxBytes, hits.get(), loads.get(),
+                evictions.get(), bypasses.get(), List.copyOf(oversized));
+    }
+
+    private CourseKnowledgeMatrix cached(String courseId) {
+        if (courseId == null || oversized.contains(courseId)) {
+            bypasses.incrementAndGet();
+            return null;
+        }
+        CourseKnowledgeMatrix matrix = courses.get(courseId);
+        if (matrix != null) {
+            hits.incrementAndGet();
+        } else {
+            matrix = load(courseId);
+            if (matrix == null) {
+                bypasses.incrementAndGet();
+                return null;
+            }
+            enforceBudget(courseId);
+        }
+        matrix.touch(clock.incrementAndGet());
+        return matrix;
+    }
+
+    /**
+     * Loads a course under its write lock rather than inside the map's compute call, so the query does
+     * not block other courses and no write can commit between the snapshot and its publication.
+     */
+    private CourseKnowledgeMatrix load(String courseId) {
+        ReentrantLock lock = courseLock(courseId);
+        lock.lock();
+        try {
+            CourseKnowledgeMatrix matrix = courses.get(courseId);
+            if (matrix != null) return matrix;
+            AssessmentJdbcRepository.CourseKnowledgeSize size = repository.loadCourseKnowledgeSize(courseId);
+            if (CourseKnowledgeMatrix.estimatedBytes(size.students(), size.terms()) > maxBytes) {
+                oversized.add(courseId);
+                return null;
+            }
+            loads.incrementAndGet();
+            matrix = CourseKnowledgeMatrix.of(dictionary, courseId, repository.loadCourseKnowledge(courseId));
+            if (matrix.estimatedBytes() > maxBytes) {
+                oversized.add(courseId);
+                return null;
+            }
+            courses.put(courseId, matrix);
+            return matrix;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock courseLock(String courseId) {
+        return courseLocks.computeIfAbsent(courseId, id -> new ReentrantLock());
+    }
+
+    private synchronized void enforceBudget(String keep) {
+        while (totalBytes() > maxBytes) {
+            Optional<CourseKnowledgeMatrix> victim = courses.values().stream()
+                    .filter(m -> !m.courseId().equals(keep))
+                    .min(Comparator.comparingLong(CourseKnowledgeMatrix::lastAccess));
+            if (victim.isEmpty()) return;
+            if (courses.remove(victim.get().courseId(), victim.get())) {
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private long totalBytes() {
+        return courses.values().stream().mapToLong(CourseKnowledgeMatrix::estimatedBytes).sum();
+    }
+
+    public record KnowledgeStoreStats(int courses,
+                                      long bytes,
+                                      long maxBytes,
+                                      long hits,
+                                      long loads,
+                                      long evictions,
+                                      long bypasses,
+                                      List<String> oversizedCourses) {}
+}
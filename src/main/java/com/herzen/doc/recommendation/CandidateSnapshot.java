@@ -0,0 +1,72 @@
+package com.herzen.doc.recommendation;
+
+import com.herzen.doc.knowledge.KnowledgeCohort;
+
+import java.util.List;
+import java.util.Map;
+
+public final class CandidateSnapshot {
+    private final String studentId;
+    private final String courseId;
+    private final Map<String, Double> studentMastery;
+    private final List<String> eligibleChapters;
+    private final boolean coldStart;
+    private final Map<String, List<String>> introducesByChapter;
+    private final Map<String, Integer> difficultyByChapter;
+    private final KnowledgeCohort similarStudents;
+    private final double targetDifficulty;
+
+    public CandidateSnapshot(String studentId,
+                             String courseId,
+                             Map<String, Double> studentMastery,
+                             List<String> eligibleChapters,
+                             boolean coldStart,
+                             Map<String, List<String>> introducesByChapter,
+                             Map<String, Integer> difficultyByChapter,
+                             KnowledgeCohort similarStudents) {
+        this.studentId = studentId;
+        this.courseId = courseId;
+        this.studentMastery = studentMastery;
+        this.eligibleChapters = eligibleChapters;
+        this.coldStart = coldStart;
+        this.introducesByChapter = introducesByChapter;
+        this.difficultyByChapter = difficultyByChapter;
+        this.similarStudents = similarStudents;
+        double avgMastery = studentMastery.values().stream().mapToDouble(v -> v).average().orElse(0.4);
+        this.targetDifficulty = 1 + 4 * avgMastery;
+    }
+
+    public String studentId() {
+        return studentId;
+    }
+
+    public String courseId() {
+        return courseId;
+    }
+
+    public List<String> eligibleChapters() {
+        return eligibleChapters;
+    }
+
+    public boolean coldStart() {
+        return coldStart;
+    }
+
+    double newTermCoverage(String chapterId) {
+        List<String> introduces = introducesByChapter.getOrDefault(chapterId, List.of());
+        if (introduces.isEmpty()) return 0.0;
+        return introduces.stream().filter(t -> studentMastery.getOrDefault(t, 0.0) < 0.6).count() / (double) introduces.size();
+    }
+
+    double difficultyFit(String chapterId) {
+        int difficulty = difficultyByChapter.getOrDefault(chapterId, 3);
+        return 1.0 - Math.min(1.0, Math.abs(difficulty - targetDifficulty) / 4.0);
+    }
+
+    double historicalSuccessSimilarStudents(String chapterId) {
+        List<String> introduces = introducesByChapter.getOrDefault(chapterId, List.of());
+        if (introduces.isEmpty() || similarStudents.isEmpty()) return 0.0;
+        return similarStudents.meanMastery(introduces);
+    }
+
+}
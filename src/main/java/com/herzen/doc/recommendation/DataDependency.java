@@ -0,0 +1,7 @@
+package com.herzen.doc.recommendation;
+
+public enum DataDependency {
+    CHAPTER_TERMS,
+    CHAPTER_DIFFICULTY,
+    COURSE_KNOWLEDGE
+}
@@ -1,6 +1,7 @@
 package com.herzen.doc.recommendation;
 
 import java.util.List;
+import java.util.Map;
 
 public class RecommendationModels {
     public record RecommendationResult(String chapterId,
@@ -11,4 +12,6 @@ public class RecommendationModels {
                                        String recommenderVersion) {}
 
     public record FactorScore(String name, double value) {}
+
+    public record RecommendationVariantsResponse(Map<String, RecommendationResult> variants) {}
 }
@@ -1,8 +1,10 @@
 package com.herzen.doc.recommendation;
 
+import com.herzen.doc.knowledge.CourseStudentCounter;
+import com.herzen.doc.knowledge.KnowledgeCohort;
+import com.herzen.doc.knowledge.StudentKnowledgeStore;
 import com.herzen.doc.repository.RecommendationJdbcRepository;
 import com.herzen.doc.repository.RecommendationJdbcRepository.ChapterTermRoleRow;
-import com.herzen.doc.repository.RecommendationJdbcRepository.StudentTermRow;
 import com.herzen.doc.service.CourseImportService;
 import org.springframework.stereotype.Service;
 
@@ -13,89 +15,128 @@ import java.util.stream.Collectors;
 public class RecommendationService {
     private final CourseImportService courseImportService;
     private final RecommendationJdbcRepository repository;
-
-    public RecommendationService(CourseImportService courseImportService, RecommendationJdbcRepository repository) {
+    private final CourseStudentCounter studentCounter;
+    private final RecommenderRegistry registry;
+    private final StudentKnowledgeStore knowledgeStore;
+
+    public RecommendationService(CourseImportService courseImportService,
+                                 RecommendationJdbcRepository repository,
+                                 CourseStudentCounter studentCounter,
+                                 RecommenderRegistry registry,
+                                 StudentKnowledgeStore knowledgeStore) {
         this.courseImportService = courseImportService;
         this.repository = repository;
+        this.studentCounter = studentCounter;
+        this.registry = registry;
+        this.knowledgeStore = knowledgeStore;
     }
 
     public RecommendationModels.RecommendationResult next(String studentId, String courseId, Set<String> completedChapterIds, String recommenderVersion) {
-        String version = normalizeVersion(recommenderVersion);
-        Map<String, Double> studentMastery = repository.loadStudentKnowledge(studentId, courseId).stream()
-                .collect(Collectors.toMap(StudentTermRow::termKey, StudentTermRow::masteryScore, (a, b) -> b));
+        RecommendationModels.RecommendationResult best = score(studentId, courseId, completedChapterIds, recommenderVersion);
+        if (best.chapterId() != null) {
+            repository.saveRecommendationLog(studentId, courseId, best.chapterId(), best.score(), serializeFactors(best.factors()),
+                    "[" + best.recommenderVersion() + "] " + best.reason());
+        }
+        return best;
+    }
+
+    /**
+     * Same scoring as {@link #next}, without writing to {@code recommendation_log}; used by offline replay.
+     */
+    public RecommendationModels.RecommendationResult score(String studentId, String courseId, Set<String> completedChapterIds, String recommenderVersion) {
+        ScoringPlan plan = registry.resolve(normalizeVersion(recommenderVersion));
+        CandidateSnapshot snapshot = snapshot(studentId, courseId, completedChapterIds, List.of(plan));
+        return evaluate(plan, snapshot);
+    }
+
+    public Map<String, RecommendationModels.RecommendationResult> compareVariants(String studentId, String courseId,
+                                                                                  Set<String> completedChapterIds,
+                                                                                  Collection<String> recommenderVersions) {
+        List<String> versions = recommenderVersions == null || recommenderVersions.isEmpty()
+                ? registry.versions()
+                : recommenderVersions.stream().map(this::normalizeVersion).distinct().toList();
+        List<ScoringPlan> plans = versions.stream().map(registry::resolve).toList();
+        CandidateSnapshot snapshot = snapshot(studentId, courseId, completedChapterIds, plans);
+
+        Map<String, RecommendationModels.RecommendationResult> results = new LinkedHashMap<>();
+        plans.forEach(plan -> results.put(plan.version(), evaluate(plan, snapshot)));
+        return results;
+    }
+
+    public List<String> versions() {
+        return registry.versions();
+    }
+
+    private CandidateSnapshot snapshot(String studentId, String courseId, Set<String> completedChapterIds, List<ScoringPlan> plans) {
         Set<String> completed = completedChapterIds == null ? Set.of() : completedChapterIds;
+        boolean coldStart = studentCounter.studentCount(courseId) < 3;
+        Set<DataDependency> dependencies = EnumSet.noneOf(DataDependency.class);
+        plans.forEach(plan -> dependencies.addAll((coldStart ? registry.coldStartPlan(plan) : plan).dependencies()));
+
+        Map<String, Double> studentMastery = knowledgeStore.mastery(studentId, courseId);
+
+        Map<String, List<String>> introducesByChapter = (dependencies.contains(DataDependency.CHAPTER_TERMS) || !completed.isEmpty())
+                ? introducesByChapter(courseId)
+                : Map.of();
 
         Set<String> mastered = studentMastery.entrySet().stream()
                 .filter(e -> e.getValue() >= 0.6)
                 .map(Map.Entry::getKey)
                 .collect(Collectors.toCollection(HashSet::new));
-        mastered.addAll(inferMasteredTermsFromCompletedChapters(courseId, completed));
+        completed.forEach(chapterId -> mastered.addAll(introducesByChapter.getOrDefault(chapterId, List.of())));
 
         List<String> eligible = courseImportService.eligibleChapters(courseId, completed, mastered);
-        if (eligible.isEmpty()) {
+
+        Map<String, Integer> difficulties = (!eligible.isEmpty() && dependencies.contains(DataDependency.CHAPTER_DIFFICULTY))
+                ? repository.loadChapterDifficulties(courseId)
+                : Map.of();
+        KnowledgeCohort similarStudents = (!eligible.isEmpty() && dependencies.contains(DataDependency.COURSE_KNOWLEDGE))
+                ? knowledgeStore.similarCohort(studentId, courseId, studentMastery, 0.3)
+                : KnowledgeCohort.EMPTY;
+
+        return new CandidateSnapshot(studentId, courseId, studentMastery, eligible, coldStart,
+                introducesByChapter, difficulties, similarStudents);
+    }
+
+    private RecommendationModels.RecommendationResult evaluate(ScoringPlan requested, CandidateSnapshot snapshot) {
+        String version = requested.version();
+        if (snapshot.eligibleChapters().isEmpty()) {
             return new RecommendationModels.RecommendationResult(null, 0.0, "Нет логически доступных глав", List.of(), true, version);
         }
 
-        boolean coldStart = repository.studentCount(courseId) < 3;
-        boolean baseline = "baseline".equalsIgnoreCase(version);
+        ScoringPlan plan = snapshot.coldStart() ? registry.coldStartPlan(requested) : requested;
         RecommendationModels.RecommendationResult best = null;
-
-        for (String chapterId : eligible) {
-            List<ChapterTermRoleRow> terms = repository.loadChapterTerms(courseId, chapterId);
-            List<String> introduces = terms.stream().filter(t -> "introduces".equalsIgnoreCase(t.role())).map(ChapterTermRoleRow::termKey).distinct().toList();
-
-            double newCoverage = introduces.isEmpty() ? 0.0 :
-                    introduces.stream().filter(t -> studentMastery.getOrDefault(t, 0.0) < 0.6).count() / (double) introduces.size();
-
-            int difficulty = Optional.ofNullable(repository.loadChapterDifficulty(courseId, chapterId)).orElse(3);
-            double avgMastery = studentMastery.values().stream().mapToDouble(v -> v).average().orElse(0.4);
-            double targetDifficulty = 1 + 4 * avgMastery;
-            double difficultyFit = 1.0 - Math.min(1.0, Math.abs(difficulty - targetDifficulty) / 4.0);
-
-            double historical = (coldStart || baseline) ? 0.0 : historicalSuccessSimilarStudents(studentId, courseId, introduces, studentMastery);
-
-            double score;
-            List<RecommendationModels.FactorScore> factors;
-            if (baseline || coldStart) {
-                score = 0.65 * newCoverage + 0.35 * difficultyFit;
-                factors = List.of(
-                        new RecommendationModels.FactorScore("new_term_coverage", newCoverage),
-                        new RecommendationModels.FactorScore("difficulty_fit", difficultyFit)
-                );
-            } else {
-                score = 0.4 * newCoverage + 0.2 * difficultyFit + 0.4 * historical;
-                factors = List.of(
-                        new RecommendationModels.FactorScore("new_term_coverage", newCoverage),
-                        new RecommendationModels.FactorScore("difficulty_fit", difficultyFit),
-                        new RecommendationModels.FactorScore("historical_success_similar", historical)
-                );
+        for (String chapterId : snapshot.eligibleChapters()) {
+            double score = 0.0;
+            Object[] values = new Object[plan.factors().size()];
+            List<RecommendationModels.FactorScore> factors = new ArrayList<>(plan.factors().size());
+            for (int i = 0; i < plan.factors().size(); i++) {
+                ScoringPlan.WeightedFactor weighted = plan.factors().get(i);
+                double value = weighted.factor().evaluate(snapshot, chapterId);
+                score += weighted.weight() * value;
+                values[i] = value;
+                factors.add(new RecommendationModels.FactorScore(weighted.factor().key(), value));
             }
 
-            String reason = buildReason(coldStart || baseline, newCoverage, difficultyFit, historical);
-            RecommendationModels.RecommendationResult candidate = new RecommendationModels.RecommendationResult(chapterId, score, reason, factors, coldStart, version);
+            RecommendationModels.RecommendationResult candidate = new RecommendationModels.RecommendationResult(
+                    chapterId, score, buildReason(plan, factors, values), List.copyOf(factors), snapshot.coldStart(), version);
             if (best == null || candidate.score() > best.score()) {
                 best = candidate;
             }
         }
-        if (best != null) {
-            repository.saveRecommendationLog(studentId, courseId, best.chapterId(), best.score(), serializeFactors(best.factors()),
-                    "[" + version + "] " + best.reason());
-        }
         return best;
     }
 
-    private Set<String> inferMasteredTermsFromCompletedChapters(String courseId, Set<String> completedChapterIds) {
-        if (completedChapterIds == null || completedChapterIds.isEmpty()) return Set.of();
-
-        return completedChapterIds.stream()
-                .flatMap(chapterId -> repository.loadChapterTerms(courseId, chapterId).stream())
-                .filter(term -> "introduces".equalsIgnoreCase(term.role()))
-                .map(ChapterTermRoleRow::termKey)
-                .collect(Collectors.toSet());
+    private Map<String, List<String>> introducesByChapter(String courseId) {
+        return repository.loadCourseChapterTerms(courseId).stream()
+                .filter(t -> "introduces".equalsIgnoreCase(t.role()))
+                .collect(Collectors.groupingBy(ChapterTermRoleRow::chapterId,
+                        Collectors.mapping(ChapterTermRoleRow::termKey,
+                                Collectors.collectingAndThen(Collectors.toCollection(LinkedHashSet::new), List::copyOf))));
     }
 
     private String normalizeVersion(String recommenderVersion) {
-        if (recommenderVersion == null || recommenderVersion.isBlank()) return "hybrid";
+        if (recommenderVersion == null || recommenderVersion.isBlank()) return RecommenderPlans.HYBRID;
         return recommenderVersion.trim().toLowerCase(Locale.ROOT);
     }
 
@@ -105,58 +146,12 @@ public class RecommendationService {
                 .collect(Collectors.joining(";"));
     }
 
-    private double historicalSuccessSimilarStudents(String studentId, String courseId, List<String> chapterTerms, Map<String, Double> targetProfile) {
-        if (chapterTerms.isEmpty()) return 0.0;
-
-        Map<String, Map<String, Double>> byStudent = repository.loadCourseKnowledge(courseId).stream()
-                .collect(Collectors.groupingBy(StudentTermRow::studentId,
-                        Collectors.toMap(StudentTermRow::termKey, StudentTermRow::masteryScore, (a, b) -> b)));
-
-        List<Map<String, Double>> similarProfiles = byStudent.entrySet().stream()
-                .filter(e -> !e.getKey().equals(studentId))
-                .filter(e -> similarity(targetProfile, e.getValue()) >= 0.3)
-                .map(Map.Entry::getValue)
-                .toList();
-
-        if (similarProfiles.isEmpty()) return 0.0;
-
-        double total = 0.0;
-        int count = 0;
-        for (Map<String, Double> profile : similarProfiles) {
-            for (String term : chapterTerms) {
-                if (profile.containsKey(term)) {
-                    total += profile.get(term);
-                    count++;
-                }
-            }
-        }
-        return count == 0 ? 0.0 : total / count;
-    }
-
-    private double similarity(Map<String, Double> a, Map<String, Double> b) {
-        Set<String> keys = new HashSet<>();
-        keys.addAll(a.keySet());
-        keys.addAll(b.keySet());
-        if (keys.isEmpty()) return 0.0;
-
-        double dot = 0.0;
-        double na = 0.0;
-        double nb = 0.0;
-        for (String k : keys) {
-            double va = a.getOrDefault(k, 0.0);
-            double vb = b.getOrDefault(k, 0.0);
-            dot += va * vb;
-            na += va * va;
-            nb += vb * vb;
-        }
-        if (na == 0 || nb == 0) return 0.0;
-        return dot / (Math.sqrt(na) * Math.sqrt(nb));
-    }
-
-    private String buildReason(boolean baselineOrColdStart, double coverage, double difficultyFit, double historical) {
-        if (baselineOrColdStart) {
-            return String.format("Графовый baseline: покрытие новых терминов (%.2f) и уровень сложности (%.2f)", coverage, difficultyFit);
+    private String buildReason(ScoringPlan plan, List<RecommendationModels.FactorScore> factors, Object[] values) {
+        if (plan.reasonTemplate() != null) {
+            return String.format(plan.reasonTemplate(), values);
         }
-        return String.format("Hybrid: новые термины=%.2f, сложность=%.2f, успех похожих студентов=%.2f", coverage, difficultyFit, historical);
+        return plan.version() + ": " + factors.stream()
+                .map(f -> String.format("%s=%.2f", f.name(), f.value()))
+                .collect(Collectors.joining(", "));
     }
 }
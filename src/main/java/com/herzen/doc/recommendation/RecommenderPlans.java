@@ -0,0 +1,30 @@
+package com.herzen.doc.recommendation;
+
+import com.herzen.doc.recommendation.ScoringPlan.WeightedFactor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class RecommenderPlans {
+    public static final String BASELINE = "baseline";
+    public static final String HYBRID = "hybrid";
+
+    @Bean
+    public ScoringPlan baselinePlan() {
+        return ScoringPlan.compile(BASELINE,
+                "Графовый baseline: покрытие новых терминов (%.2f) и уровень сложности (%.2f)",
+                null,
+                new WeightedFactor(ScoringFactor.NEW_TERM_COVERAGE, 0.65),
+                new WeightedFactor(ScoringFactor.DIFFICULTY_FIT, 0.35));
+    }
+
+    @Bean
+    public ScoringPlan hybridPlan() {
+        return ScoringPlan.compile(HYBRID,
+                "Hybrid: новые термины=%.2f, сложность=%.2f, успех похожих студентов=%.2f",
+                BASELINE,
+                new WeightedFactor(ScoringFactor.NEW_TERM_COVERAGE, 0.4),
+                new WeightedFactor(ScoringFactor.DIFFICULTY_FIT, 0.2),
+                new WeightedFactor(ScoringFactor.HISTORICAL_SUCCESS_SIMILAR, 0.4));
+    }
+}
@@ -0,0 +1,44 @@
+package com.herzen.doc.recommendation;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class RecommenderRegistry {
+    private final Map<String, ScoringPlan> plans = new ConcurrentHashMap<>();
+
+    public RecommenderRegistry(List<ScoringPlan> plans) {
+        plans.forEach(plan -> this.plans.put(plan.version(), plan));
+        plans.forEach(this::checkFallback);
+    }
+
+    public void register(ScoringPlan plan) {
+        checkFallback(plan);
+        plans.put(plan.version(), plan);
+    }
+
+    public ScoringPlan resolve(String version) {
+        ScoringPlan plan = plans.get(version);
+        if (plan == null) {
+            throw new IllegalArgumentException("Unknown recommender version: " + version + ", registered: " + versions());
+        }
+        return plan;
+    }
+
+    public ScoringPlan coldStartPlan(ScoringPlan plan) {
+        return plan.coldStartFallback() == null ? plan : resolve(plan.coldStartFallback());
+    }
+
+    private void checkFallback(ScoringPlan plan) {
+        String fallback = plan.coldStartFallback();
+        if (fallback != null && !fallback.equals(plan.version()) && !plans.containsKey(fallback)) {
+            throw new IllegalArgumentException("Cold-start fallback " + fallback + " of " + plan.version() + " is not registered");
+        }
+    }
+
+    public List<String> versions() {
+        return plans.keySet().stream().sorted().toList();
+    }
+}
@@ -0,0 +1,43 @@
+package com.herzen.doc.recommendation;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+public enum ScoringFactor {
+    NEW_TERM_COVERAGE("new_term_coverage", EnumSet.of(DataDependency.CHAPTER_TERMS)) {
+        @Override
+        public double evaluate(CandidateSnapshot snapshot, String chapterId) {
+            return snapshot.newTermCoverage(chapterId);
+        }
+    },
+    DIFFICULTY_FIT("difficulty_fit", EnumSet.of(DataDependency.CHAPTER_DIFFICULTY)) {
+        @Override
+        public double evaluate(CandidateSnapshot snapshot, String chapterId) {
+            return snapshot.difficultyFit(chapterId);
+        }
+    },
+    HISTORICAL_SUCCESS_SIMILAR("historical_success_similar", EnumSet.of(DataDependency.CHAPTER_TERMS, DataDependency.COURSE_KNOWLEDGE)) {
+        @Override
+        public double evaluate(CandidateSnapshot snapshot, String chapterId) {
+            return snapshot.historicalSuccessSimilarStudents(chapterId);
+        }
+    };
+
+    private final String key;
+    private final Set<DataDependency> dependencies;
+
+    ScoringFactor(String key, Set<DataDependency> dependencies) {
+        this.key = key;
+        this.dependencies = dependencies;
+    }
+
+    public String key() {
+        return key;
+    }
+
+    public Set<DataDependency> dependencies() {
+        return dependencies;
+    }
+
+    public abstract double evaluate(CandidateSnapshot snapshot, String chapterId);
+}
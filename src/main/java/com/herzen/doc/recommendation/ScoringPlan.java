@@ -0,0 +1,28 @@
+package com.herzen.doc.recommendation;
+
+import java.util.*;
+
+public record ScoringPlan(String version,
+                          List<WeightedFactor> factors,
+                          Set<DataDependency> dependencies,
+                          String reasonTemplate,
+                          String coldStartFallback) {
+
+    public static ScoringPlan compile(String version, String reasonTemplate, String coldStartFallback, WeightedFactor... factors) {
+        if (version == null || version.isBlank()) {
+            throw new IllegalArgumentException("Scoring plan version must not be blank");
+        }
+        if (factors.length == 0) {
+            throw new IllegalArgumentException("Scoring plan " + version + " has no factors");
+        }
+        Set<DataDependency> dependencies = EnumSet.noneOf(DataDependency.class);
+        for (WeightedFactor factor : factors) {
+            dependencies.addAll(factor.factor().dependencies());
+        }
+        return new ScoringPlan(version.trim().toLowerCase(Locale.ROOT), List.of(factors),
+                Collections.unmodifiableSet(dependencies), reasonTemplate,
+                coldStartFallback == null ? null : coldStartFallback.trim().toLowerCase(Locale.ROOT));
+    }
+
+    public record WeightedFactor(ScoringFactor factor, double weight) {}
+}
@@ -0,0 +1,129 @@
+package com.herzen.doc.replay;
+
+import com.herzen.doc.recommendation.RecommendationModels;
+import com.herzen.doc.recommendation.RecommendationService;
+import com.herzen.doc.replay.ReplayModels.*;
+import com.herzen.doc.repository.ReplayJdbcRepository;
+import com.herzen.doc.repository.ReplayJdbcRepository.ChapterCompletionRow;
+import com.herzen.doc.repository.ReplayJdbcRepository.LoggedRecommendationRow;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+public class RecommendationReplayHarness {
+    private final RecommendationService recommendationService;
+    private final ReplayJdbcRepository repository;
+    private final QueryCountingDataSource queryCounter;
+
+    public RecommendationReplayHarness(RecommendationService recommendationService,
+                                       ReplayJdbcRepository repository,
+                                       QueryCountingDataSource queryCounter) {
+        this.recommendationService = recommendationService;
+        this.repository = repository;
+        this.queryCounter = queryCounter;
+    }
+
+    public List<ReplayRequest> loadRequests(int limit) {
+        List<LoggedRecommendationRow> logged = repository.loadRecommendationLog(limit);
+        Map<String, List<ChapterCompletionRow>> completions = repository.loadChapterCompletions().stream()
+                .collect(Collectors.groupingBy(c -> c.studentId() + "|" + c.courseId()));
+
+        return logged.stream()
+                .map(row -> new ReplayRequest(row.id(), row.studentId(), row.courseId(),
+                        completions.getOrDefault(row.studentId() + "|" + row.courseId(), List.of()).stream()
+                                .filter(c -> c.ts().isBefore(row.ts()))
+                                .map(ChapterCompletionRow::chapterId)
+                                .collect(Collectors.toSet()),
+                        row.chapterId(),
+                        loggedVersion(row.reason())))
+                .toList();
+    }
+
+    public List<ReplayReport> replay(List<ReplayRequest> requests, List<String> versions, int parallelism) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+        try {
+            List<ReplayReport> reports = new ArrayList<>();
+            for (String version : versions) {
+                List<Future<ReplayOutcome>> futures = requests.stream()
+                        .map(request -> executor.submit(() -> replayOne(request, version)))
+                        .toList();
+                List<ReplayOutcome> outcomes = new ArrayList<>(futures.size());
+                for (Future<ReplayOutcome> future : futures) {
+                    outcomes.add(await(future));
+                }
+                reports.add(report(version, outcomes));
+            }
+            return reports;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private ReplayOutcome replayOne(ReplayRequest request, String version) {
+        if (queryCounter != null) queryCounter.reset();
+        long started = System.nanoTime();
+        String chapterId = null;
+        boolean failed = false;
+        try {
+            RecommendationModels.RecommendationResult result = recommendationService.score(
+                    request.studentId(), request.courseId(), request.completedChapterIds(), version);
+            chapterId = result == null ? null : result.chapterId();
+        } catch (RuntimeException e) {
+            failed = true;
+        }
+        long latency = System.nanoTime() - started;
+        long queries = queryCounter == null ? 0 : queryCounter.currentThreadQueries();
+        return new ReplayOutcome(request, chapterId, latency, queries, failed);
+    }
+
+    private ReplayReport report(String version, List<ReplayOutcome> outcomes) {
+        long[] latencies = outcomes.stream().mapToLong(ReplayOutcome::latencyNanos).sorted().toArray();
+        long totalQueries = outcomes.stream().mapToLong(ReplayOutcome::queries).sum();
+        int failures = (int) outcomes.stream().filter(ReplayOutcome::failed).count();
+
+        long agreed = outcomes.stream()
+                .filter(o -> Objects.equals(o.chapterId(), o.request().loggedChapterId()))
+                .count();
+        List<ReplayOutcome> sameVersion = outcomes.stream()
+                .filter(o -> version.equalsIgnoreCase(o.request().loggedVersion()))
+                .toList();
+        long sameVersionAgreed = sameVersion.stream()
+                .filter(o -> Objects.equals(o.chapterId(), o.request().loggedChapterId()))
+                .count();
+
+        return new ReplayReport(version, outcomes.size(), failures,
+                percentileMs(latencies, 0.50), percentileMs(latencies, 0.90), percentileMs(latencies, 0.99),
+                latencies.length == 0 ? 0.0 : latencies[latencies.length - 1] / 1_000_000.0,
+                outcomes.isEmpty() ? 0.0 : (double) totalQueries / outcomes.size(),
+                totalQueries,
+                outcomes.isEmpty() ? 0.0 : (double) agreed / outcomes.size(),
+                sameVersion.isEmpty() ? 0.0 : (double) sameVersionAgreed / sameVersion.size());
+    }
+
+    private double percentileMs(long[] sorted, double percentile) {
+        if (sorted.length == 0) return 0.0;
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1_000_000.0;
+    }
+
+    private String loggedVersion(String reason) {
+        if (reason == null || !reason.startsWith("[")) return null;
+        int end = reason.indexOf(']');
+        return end <= 1 ? null : reason.substring(1, end).trim().toLowerCase(Locale.ROOT);
+    }
+
+    private ReplayOutcome await(Future<ReplayOutcome> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Replay interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Replay task failed", e.getCause());
+        }
+    }
+}
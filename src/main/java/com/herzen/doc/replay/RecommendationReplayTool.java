@@ -0,0 +1,113 @@
+package com.herzen.doc.replay;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.herzen.doc.Application;
+import com.herzen.doc.recommendation.RecommendationService;
+import com.herzen.doc.recommendation.RecommenderRegistry;
+import com.herzen.doc.replay.ReplayModels.ReplayReport;
+import com.herzen.doc.replay.ReplayModels.ReplayRequest;
+import com.herzen.doc.replay.ReplayModels.ReplayRun;
+import com.herzen.doc.repository.ReplayJdbcRepository;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+
+public class RecommendationReplayTool {
+    private static final String USAGE = """
+            Usage: RecommendationReplayTool source=<h2-script.sql> [versions=v1,v2] [parallelism=N] [limit=N] [report=<file.json>]
+              source    H2 export produced with: SCRIPT TO 'dump.sql'
+              versions  defaults to every registered recommender version
+              limit     replay only the first N recommendation_log rows (0 = all)
+            """;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String source = options.get("source");
+        if (source == null || !Files.isReadable(Path.of(source))) {
+            System.err.print(USAGE);
+            System.exit(2);
+            return;
+        }
+        int parallelism = Integer.parseInt(options.getOrDefault("parallelism", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int limit = Integer.parseInt(options.getOrDefault("limit", "0"));
+
+        String url = "jdbc:h2:mem:replay-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        try (Connection connection = DriverManager.getConnection(url, "sa", "")) {
+            loadScript(connection, Path.of(source));
+
+            try (ConfigurableApplicationContext context = startContext(url)) {
+                RecommendationReplayHarness harness = new RecommendationReplayHarness(
+                        context.getBean(RecommendationService.class),
+                        context.getBean(ReplayJdbcRepository.class),
+                        context.getBean(QueryCountingDataSource.class));
+
+                List<String> versions = options.containsKey("versions")
+                        ? Arrays.stream(options.get("versions").split(",")).map(String::trim).filter(v -> !v.isEmpty()).toList()
+                        : context.getBean(RecommenderRegistry.class).versions();
+                List<ReplayRequest> requests = harness.loadRequests(limit);
+                List<ReplayReport> reports = harness.replay(requests, versions, parallelism);
+                print(source, requests.size(), parallelism, reports);
+
+                String reportPath = options.get("report");
+                if (reportPath != null) {
+                    context.getBean(ObjectMapper.class).writerWithDefaultPrettyPrinter()
+                            .writeValue(Path.of(reportPath).toFile(), new ReplayRun(source, parallelism, reports));
+                }
+            }
+        }
+    }
+
+    private static void loadScript(Connection connection, Path source) throws SQLException, IOException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("RUNSCRIPT FROM '" + source.toRealPath().toString().replace("'", "''") + "'");
+        }
+    }
+
+    private static ConfigurableApplicationContext startContext(String url) {
+        return new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .properties("spring.main.banner-mode=off")
+                .initializers(context -> context.getBeanFactory().addBeanPostProcessor(new BeanPostProcessor() {
+                    @Override
+                    public Object postProcessAfterInitialization(Object bean, String beanName) {
+                        if (bean instanceof DataSource dataSource && !(bean instanceof QueryCountingDataSource)) {
+                            return new QueryCountingDataSource(dataSource);
+                        }
+                        return bean;
+                    }
+                }))
+                .run("--spring.datasource.url=" + url, "--analytics.recompute.enabled=false");
+    }
+
+    private static void print(String source, int requests, int parallelism, List<ReplayReport> reports) {
+        System.out.printf(Locale.US, "Replayed %d logged recommendations from %s on %d threads%n", requests, source, parallelism);
+        System.out.printf(Locale.US, "%-12s %8s %8s %9s %9s %9s %9s %9s %10s %10s%n",
+                "version", "requests", "failed", "p50 ms", "p90 ms", "p99 ms", "max ms", "queries", "agree", "agree/ver");
+        for (ReplayReport r : reports) {
+            System.out.printf(Locale.US, "%-12s %8d %8d %9.3f %9.3f %9.3f %9.3f %9.2f %10.3f %10.3f%n",
+                    r.recommenderVersion(), r.requests(), r.failures(), r.p50LatencyMs(), r.p90LatencyMs(), r.p99LatencyMs(),
+                    r.maxLatencyMs(), r.avgQueries(), r.agreementWithLogged(), r.agreementWithSameVersion());
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            String a = arg.startsWith("--") ? arg.substring(2) : arg;
+            int eq = a.indexOf('=');
+            if (eq > 0) options.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        return options;
+    }
+}
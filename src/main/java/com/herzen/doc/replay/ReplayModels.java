@@ -0,0 +1,29 @@
+package com.herzen.doc.replay;
+
+import java.util.List;
+import java.util.Set;
+
+public class ReplayModels {
+    public record ReplayRequest(long logId,
+                                String studentId,
+                                String courseId,
+                                Set<String> completedChapterIds,
+                                String loggedChapterId,
+                                String loggedVersion) {}
+
+    public record ReplayOutcome(ReplayRequest request, String chapterId, long latencyNanos, long queries, boolean failed) {}
+
+    public record ReplayReport(String recommenderVersion,
+                               int requests,
+                               int failures,
+                               double p50LatencyMs,
+                               double p90LatencyMs,
+                               double p99LatencyMs,
+                               double maxLatencyMs,
+                               double avgQueries,
+                               long totalQueries,
+                               double agreementWithLogged,
+                               double agreementWithSameVersion) {}
+
+    public record ReplayRun(String source, int parallelism, List<ReplayReport> reports) {}
+}
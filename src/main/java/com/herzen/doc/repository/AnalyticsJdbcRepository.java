@@ -1,88 +1,444 @@
 package com.herzen.doc.repository;
 
 import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.LearningEventTypes;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Repository
 public class AnalyticsJdbcRepository {
+    private static final int IN_CHUNK = 500;
+    private static final String AGGREGATE_COLUMNS = "scope_type, student_id, course_id, chapter_id, recommender_version, learning_gain, time_to_mastery_seconds, recommendation_acceptance, drop_off, prerequisite_violation, computed_at, counters, first_open_at, first_complete_at";
+
     private final JdbcTemplate jdbcTemplate;
+    private final int fetchSize;
 
-    public AnalyticsJdbcRepository(JdbcTemplate jdbcTemplate) {
+    public AnalyticsJdbcRepository(JdbcTemplate jdbcTemplate,
+                                   @Value("${analytics.scan.fetch-size:1000}") int fetchSize) {
         this.jdbcTemplate = jdbcTemplate;
+        this.fetchSize = fetchSize;
     }
 
+    @Transactional
     public void saveEvents(List<AnalyticsModels.EventIn> events) {
-        events.forEach(e -> jdbcTemplate.update(
-                "INSERT INTO learning_events(student_id, course_id, chapter_id, event_type, ts, payload, recommender_version) VALUES (?,?,?,?,?,?,?)",
-                e.studentId(), e.courseId(), e.chapterId(), e.eventType(),
-                (e.ts() == null ? Instant.now() : e.ts()).toString(),
-                e.payload(), e.recommenderVersion()
+        if (events.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO learning_events(student_id, course_id, chapter_id, event_type, ts, payload, recommender_version, term_key, session_id, answers, event_id) VALUES (?,?,?,?,?,?,?,?,?,?,?)",
+                events.stream().map(e -> new Object[]{
+                        e.studentId(), e.courseId(), e.chapterId(), e.eventType(),
+                        e.ts() == null ? Instant.now() : e.ts(),
+                        e.payload(), e.recommenderVersion(),
+                        LearningEventTypes.payloadValue(e.payload(), "term"),
+                        LearningEventTypes.payloadValue(e.payload(), "session"),
+                        LearningEventTypes.payloadInt(e.payload(), "answers"),
+                        nullable(e.eventId())
+                }).toList());
+    }
+
+    public Set<String> findStoredEventIds(Collection<String> eventIds) {
+        Set<String> stored = new HashSet<>();
+        for (List<String> chunk : chunks(eventIds)) {
+            stored.addAll(jdbcTemplate.queryForList(
+                    "SELECT event_id FROM learning_events WHERE event_id IN (" + placeholders(chunk.size()) + ")",
+                    String.class, chunk.toArray()));
+        }
+        return stored;
+    }
+
+    public void scanEvents(Collection<ChapterKeyRow> keys, long uptoId, Consumer<EventRow> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(new EventRow(
+                rs.getString(1), rs.getString(2), rs.getString(3),
+                rs.getString(4), rs.getObject(5, Instant.class), rs.getString(6), rs.getString(7)
         ));
+        String sql = "SELECT student_id, course_id, chapter_id, event_type, ts, payload, recommender_version FROM learning_events WHERE id <= ?";
+        if (keys == null) {
+            stream(sql, new Object[]{uptoId}, handler);
+            return;
+        }
+        streamChapterKeys(sql + " AND", "", uptoId, keys, handler);
     }
 
-    public List<EventRow> loadEvents() {
-        return jdbcTemplate.query(
-                "SELECT student_id, course_id, chapter_id, event_type, ts, payload, recommender_version FROM learning_events",
-                (rs, n) -> new EventRow(
+    public void scanRecommendationCounts(Collection<ChapterKeyRow> keys, long uptoId, Consumer<RecommendationCountRow> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(new RecommendationCountRow(
+                new ChapterKeyRow(rs.getString(1), rs.getString(2), rs.getString(3)), rs.getLong(4)));
+        String select = "SELECT student_id, course_id, chapter_id, COUNT(*) FROM recommendation_log WHERE id <= ?";
+        String group = " GROUP BY student_id, course_id, chapter_id";
+        if (keys == null) {
+            stream(select + group, new Object[]{uptoId}, handler);
+            return;
+        }
+        streamChapterKeys(select + " AND", group, uptoId, keys, handler);
+    }
+
+    public void scanCourseEvents(String courseId, Collection<String> eventTypes, LocalDate sinceDay, Consumer<EventSummaryRow> consumer) {
+        List<Object> args = new ArrayList<>(eventTypes);
+        String sql = "SELECT chapter_id, event_type, term_key FROM learning_events WHERE event_type IN (" + placeholders(eventTypes.size()) + ")";
+        if (courseId != null && !courseId.isBlank()) {
+            sql += " AND course_id = ?";
+            args.add(courseId);
+        }
+        if (sinceDay != null) {
+            sql += " AND ts >= ?";
+            args.add(sinceDay.atStartOfDay(ZoneOffset.UTC).toInstant());
+        }
+        stream(sql, args.toArray(), rs -> consumer.accept(new EventSummaryRow(rs.getString(1), rs.getString(2), rs.getString(3))));
+    }
+
+    public List<LocalDate> loadEventDaysBefore(LocalDate cutoff) {
+        return jdbcTemplate.queryForList(
+                "SELECT DISTINCT event_day FROM learning_events WHERE event_day < ? ORDER BY event_day", LocalDate.class, cutoff);
+    }
+
+    public void scanEventsOnDay(LocalDate day, long uptoId, Consumer<EventRow> consumer) {
+        stream("SELECT student_id, course_id, chapter_id, event_type, ts, payload, recommender_version FROM learning_events WHERE event_day = ? AND id <= ?",
+                new Object[]{day, uptoId},
+                rs -> consumer.accept(new EventRow(
                         rs.getString(1), rs.getString(2), rs.getString(3),
-                        rs.getString(4), Instant.parse(rs.getString(5)), rs.getString(6), rs.getString(7)
-                )
-        );
+                        rs.getString(4), rs.getObject(5, Instant.class), rs.getString(6), rs.getString(7)
+                )));
+    }
+
+    @Transactional
+    public int compactDay(LocalDate day, long uptoId, List<KeyRollupRow> keyRollups, List<CourseRollupRow> courseRollups) {
+        if (!keyRollups.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "MERGE INTO learning_event_rollups t USING (VALUES (CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), " +
+                            "CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT), CAST(? AS BIGINT))) " +
+                            "AS s(student_id, course_id, chapter_id, recommender_version, opens, completes, answer_submits, term_clicks, acceptances, first_open_ms, first_complete_ms) " +
+                            "ON t.student_id = s.student_id AND t.course_id = s.course_id AND t.chapter_id = s.chapter_id AND t.recommender_version = s.recommender_version " +
+                            "WHEN MATCHED THEN UPDATE SET opens = t.opens + s.opens, completes = t.completes + s.completes, " +
+                            "answer_submits = t.answer_submits + s.answer_submits, term_clicks = t.term_clicks + s.term_clicks, acceptances = t.acceptances + s.acceptances, " +
+                            "first_open_ms = LEAST(COALESCE(t.first_open_ms, s.first_open_ms), COALESCE(s.first_open_ms, t.first_open_ms)), " +
+                            "first_complete_ms = LEAST(COALESCE(t.first_complete_ms, s.first_complete_ms), COALESCE(s.first_complete_ms, t.first_complete_ms)) " +
+                            "WHEN NOT MATCHED THEN INSERT (student_id, course_id, chapter_id, recommender_version, opens, completes, answer_submits, term_clicks, acceptances, first_open_ms, first_complete_ms) " +
+                            "VALUES (s.student_id, s.course_id, s.chapter_id, s.recommender_version, s.opens, s.completes, s.answer_submits, s.term_clicks, s.acceptances, s.first_open_ms, s.first_complete_ms)",
+                    keyRollups.stream().map(r -> new Object[]{
+                            r.studentId(), r.courseId(), r.chapterId(), r.version(), r.opens(), r.completes(),
+                            r.answerSubmits(), r.termClicks(), r.acceptances(), r.firstOpenMs(), r.firstCompleteMs()
+                    }).toList());
+        }
+        if (!courseRollups.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "MERGE INTO learning_event_course_rollups t USING (VALUES (CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(256)), CAST(? AS BIGINT))) " +
+                            "AS s(course_id, event_type, dimension_key, occurrences) " +
+                            "ON t.course_id = s.course_id AND t.event_type = s.event_type AND t.dimension_key = s.dimension_key " +
+                            "WHEN MATCHED THEN UPDATE SET occurrences = t.occurrences + s.occurrences " +
+                            "WHEN NOT MATCHED THEN INSERT (course_id, event_type, dimension_key, occurrences) VALUES (s.course_id, s.event_type, s.dimension_key, s.occurrences)",
+                    courseRollups.stream().map(r -> new Object[]{r.courseId(), r.eventType(), r.dimensionKey(), r.occurrences()}).toList());
+        }
+        return jdbcTemplate.update("DELETE FROM learning_events WHERE event_day = ? AND id <= ?", day, uptoId);
+    }
+
+    public void scanKeyRollups(Collection<ChapterKeyRow> keys, Consumer<KeyRollupRow> consumer) {
+        RowCallbackHandler handler = rs -> consumer.accept(new KeyRollupRow(
+                rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                rs.getLong(5), rs.getLong(6), rs.getLong(7), rs.getLong(8), rs.getLong(9),
+                (Long) rs.getObject(10), (Long) rs.getObject(11)));
+        String sql = "SELECT student_id, course_id, chapter_id, recommender_version, opens, completes, answer_submits, term_clicks, acceptances, " +
+                "first_open_ms, first_complete_ms FROM learning_event_rollups";
+        if (keys == null) {
+            stream(sql, new Object[0], handler);
+            return;
+        }
+        streamChapterKeys(sql + " WHERE", "", null, keys, handler);
     }
 
-    public List<RecommendationRow> loadRecommendationLog() {
+    public void scanCourseRollups(String courseId, Consumer<CourseRollupRow> consumer) {
+        boolean allCourses = courseId == null || courseId.isBlank();
+        stream("SELECT course_id, event_type, dimension_key, occurrences FROM learning_event_course_rollups"
+                        + (allCourses ? "" : " WHERE course_id = ?"),
+                allCourses ? new Object[0] : new Object[]{courseId},
+                rs -> consumer.accept(new CourseRollupRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getLong(4))));
+    }
+
+    public List<ChapterKeyRow> loadTouchedChapters(long eventsAfter, long eventsUpto, long recsAfter, long recsUpto) {
         return jdbcTemplate.query(
-                "SELECT student_id, course_id, chapter_id, ts FROM recommendation_log",
-                (rs, n) -> new RecommendationRow(rs.getString(1), rs.getString(2), rs.getString(3), Instant.parse(rs.getString(4)))
+                "SELECT DISTINCT student_id, course_id, chapter_id FROM learning_events WHERE id > ? AND id <= ? AND chapter_id IS NOT NULL " +
+                        "UNION SELECT DISTINCT student_id, course_id, chapter_id FROM recommendation_log WHERE id > ? AND id <= ?",
+                (rs, n) -> new ChapterKeyRow(rs.getString(1), rs.getString(2), rs.getString(3)),
+                eventsAfter, eventsUpto, recsAfter, recsUpto
         );
     }
 
-    public List<PrerequisiteRow> loadPrerequisites(String courseId) {
+    public long maxEventId() {
+        Long id = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM learning_events", Long.class);
+        return id == null ? 0L : id;
+    }
+
+    public long maxRecommendationId() {
+        Long id = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM recommendation_log", Long.class);
+        return id == null ? 0L : id;
+    }
+
+    public long countEventIds(long afterId, long uptoId) {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM learning_events WHERE id > ? AND id <= ?", Long.class, afterId, uptoId);
+        return count == null ? 0L : count;
+    }
+
+    public long countRecommendationIds(long afterId, long uptoId) {
+        Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recommendation_log WHERE id > ? AND id <= ?", Long.class, afterId, uptoId);
+        return count == null ? 0L : count;
+    }
+
+    public long loadWatermark(String name) {
+        List<Long> ids = jdbcTemplate.queryForList("SELECT last_id FROM analytics_watermarks WHERE name = ?", Long.class, name);
+        return ids.isEmpty() ? 0L : ids.get(0);
+    }
+
+    @Transactional
+    public void saveWatermarks(Map<String, Long> watermarks) {
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO analytics_watermarks t USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS BIGINT))) AS s(name, last_id) ON t.name = s.name " +
+                        "WHEN MATCHED THEN UPDATE SET last_id = GREATEST(t.last_id, s.last_id) " +
+                        "WHEN NOT MATCHED THEN INSERT (name, last_id) VALUES (s.name, s.last_id)",
+                watermarks.entrySet().stream().map(e -> new Object[]{e.getKey(), e.getValue()}).toList());
+    }
+
+    public List<PrerequisiteRow> loadPrerequisites(Collection<String> courseIds) {
+        List<PrerequisiteRow> rows = new ArrayList<>();
+        for (List<String> chunk : chunks(courseIds)) {
+            rows.addAll(jdbcTemplate.query(
+                    "SELECT course_id, chapter_id, prerequisite_chapter_id FROM chapter_prerequisites WHERE course_id IN (" + placeholders(chunk.size()) + ")",
+                    (rs, n) -> new PrerequisiteRow(rs.getString(1), rs.getString(2), rs.getString(3)),
+                    chunk.toArray()
+            ));
+        }
+        return rows;
+    }
+
+    @Transactional
+    public void upsertAggregates(List<AnalyticsModels.AnalyticsAggregate> aggregates) {
+        if (aggregates.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO analytics_aggregates(scope_type, student_id, course_id, chapter_id, recommender_version, learning_gain, time_to_mastery_seconds, recommendation_acceptance, drop_off, prerequisite_violation, computed_at, counters, first_open_at, first_complete_at) KEY(scope_type, student_id, course_id, chapter_id, recommender_version) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?)",
+                aggregates.stream().map(a -> new Object[]{
+                        a.scopeType(), a.studentId(), a.courseId(), a.chapterId(), a.recommenderVersion(),
+                        a.learningGain(), a.timeToMasterySeconds(), a.recommendationAcceptance(), a.dropOff(), a.prerequisiteViolation(),
+                        a.computedAt(), toCountersString(a.counters()), a.firstOpenAt(), a.firstCompleteAt()
+                }).toList());
+    }
+
+    public List<AnalyticsModels.AnalyticsAggregate> queryAggregatesPage(String scope, String studentId, String courseId, String chapterId,
+                                                                        AggregateCursor after, int limit) {
+        List<Object> args = new ArrayList<>();
+        String filter = aggregateFilter(scope, studentId, courseId, chapterId, args);
+        String keyset = "";
+        if (after != null) {
+            keyset = " AND (student_id, course_id, chapter_id, recommender_version) > (?, ?, ?, ?)";
+            args.addAll(List.of(after.studentId(), after.courseId(), after.chapterId(), after.version()));
+        }
+        args.add(limit);
         return jdbcTemplate.query(
-                "SELECT chapter_id, prerequisite_chapter_id FROM chapter_prerequisites WHERE course_id = ?",
-                (rs, n) -> new PrerequisiteRow(rs.getString(1), rs.getString(2)),
-                courseId
+                "SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates " + filter + keyset +
+                        " ORDER BY student_id, course_id, chapter_id, recommender_version LIMIT ?",
+                (rs, n) -> mapAggregate(rs),
+                args.toArray()
         );
     }
 
-    public void upsertAggregate(AnalyticsModels.AnalyticsAggregate a) {
-        jdbcTemplate.update(
-                "MERGE INTO analytics_aggregates(scope_type, student_id, course_id, chapter_id, recommender_version, learning_gain, time_to_mastery_seconds, recommendation_acceptance, drop_off, prerequisite_violation, computed_at, counters) KEY(scope_type, student_id, course_id, chapter_id, recommender_version) VALUES (?,?,?,?,?,?,?,?,?,?,?,?)",
-                a.scopeType(), a.studentId(), a.courseId(), a.chapterId(), a.recommenderVersion(),
-                a.learningGain(), a.timeToMasterySeconds(), a.recommendationAcceptance(), a.dropOff(), a.prerequisiteViolation(),
-                a.computedAt().toString(), toCountersString(a.counters())
-        );
+    public void scanAggregates(String scope, String studentId, String courseId, String chapterId,
+                               Consumer<AnalyticsModels.AnalyticsAggregate> consumer) {
+        List<Object> args = new ArrayList<>();
+        String filter = aggregateFilter(scope, studentId, courseId, chapterId, args);
+        stream("SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates " + filter +
+                        " ORDER BY student_id, course_id, chapter_id, recommender_version",
+                args.toArray(),
+                rs -> consumer.accept(mapAggregate(rs)));
     }
 
-    public List<AnalyticsModels.AnalyticsAggregate> queryAggregates(String studentId, String courseId, String chapterId) {
+    public List<AnalyticsModels.AnalyticsAggregate> loadAggregates(String scope, String courseId) {
+        List<Object> args = new ArrayList<>();
+        String filter = aggregateFilter(scope, null, courseId, null, args);
         return jdbcTemplate.query(
-                "SELECT scope_type, student_id, course_id, chapter_id, recommender_version, learning_gain, time_to_mastery_seconds, recommendation_acceptance, drop_off, prerequisite_violation, computed_at, counters FROM analytics_aggregates " +
-                        "WHERE (? IS NULL OR student_id = ?) AND (? IS NULL OR course_id = ?) AND (? IS NULL OR chapter_id = ?) ORDER BY computed_at DESC",
-                (rs, n) -> new AnalyticsModels.AnalyticsAggregate(
-                        rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
-                        rs.getDouble(6), (Double) rs.getObject(7), rs.getDouble(8), rs.getDouble(9), rs.getDouble(10),
-                        Instant.parse(rs.getString(11)), parseCounters(rs.getString(12))
-                ),
-                studentId, studentId, courseId, courseId, chapterId, chapterId
+                "SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates " + filter,
+                (rs, n) -> mapAggregate(rs),
+                args.toArray()
         );
     }
 
+    public void scanAggregates(String scope, Collection<String> courseIds, Consumer<AnalyticsModels.AnalyticsAggregate> consumer) {
+        for (List<String> chunk : chunks(courseIds)) {
+            stream("SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates WHERE scope_type = ? AND course_id IN (" + placeholders(chunk.size()) + ")",
+                    withLeading(scope, chunk),
+                    rs -> consumer.accept(mapAggregate(rs)));
+        }
+    }
+
+    /** Loads the stored rows that share scope and key with the given aggregates. */
+    public List<AnalyticsModels.AnalyticsAggregate> loadStoredAggregates(List<AnalyticsModels.AnalyticsAggregate> aggregates) {
+        List<AnalyticsModels.AnalyticsAggregate> stored = new ArrayList<>();
+        Map<String, List<AnalyticsModels.AnalyticsAggregate>> byScope = aggregates.stream()
+                .collect(Collectors.groupingBy(AnalyticsModels.AnalyticsAggregate::scopeType));
+        byScope.forEach((scope, rows) -> {
+            for (int from = 0; from < rows.size(); from += IN_CHUNK / 4) {
+                List<AnalyticsModels.AnalyticsAggregate> chunk = rows.subList(from, Math.min(rows.size(), from + IN_CHUNK / 4));
+                List<Object> args = new ArrayList<>(chunk.size() * 4 + 1);
+                args.add(scope);
+                chunk.forEach(a -> args.addAll(Arrays.asList(a.studentId(), a.courseId(), a.chapterId(), a.recommenderVersion())));
+                stream("SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates WHERE scope_type = ? " +
+                                "AND (student_id, course_id, chapter_id, recommender_version) IN (" +
+                                String.join(",", Collections.nCopies(chunk.size(), "(?,?,?,?)")) + ")",
+                        args.toArray(),
+                        rs -> stored.add(mapAggregate(rs)));
+            }
+        });
+        return stored;
+    }
+
+    public void scanStudentAggregates(String scope, Collection<String> studentIds, Consumer<AnalyticsModels.AnalyticsAggregate> consumer) {
+        for (List<String> chunk : chunks(studentIds)) {
+            stream("SELECT " + AGGREGATE_COLUMNS + " FROM analytics_aggregates WHERE scope_type = ? AND student_id IN (" + placeholders(chunk.size()) + ")",
+                    withLeading(scope, chunk),
+                    rs -> consumer.accept(mapAggregate(rs)));
+        }
+    }
+
+    @Transactional
+    public void upsertKeyDays(List<KeyDayRow> rows) {
+        if (rows.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO analytics_key_days(student_id, course_id, chapter_id, recommender_version, activity_day, session_seconds, mastery_seconds) KEY(student_id, course_id, chapter_id, recommender_version, activity_day) VALUES (?,?,?,?,?,?,?)",
+                rows.stream().map(r -> new Object[]{
+                        r.studentId(), r.courseId(), r.chapterId(), r.version(), LocalDate.parse(r.day()), r.sessionSeconds(), r.masterySeconds()
+                }).toList());
+    }
 
-    public List<AnalyticsModels.AnalyticsAggregate> loadAllAggregates() {
+    public void scanKeyDays(Collection<String> courseIds, Collection<String> days, Consumer<KeyDayRow> consumer) {
+        List<String> dayList = new ArrayList<>(days);
+        for (List<String> chunk : chunks(courseIds)) {
+            for (List<String> dayChunk : chunks(dayList)) {
+                Object[] args = new Object[chunk.size() + dayChunk.size()];
+                for (int i = 0; i < chunk.size(); i++) args[i] = chunk.get(i);
+                for (int i = 0; i < dayChunk.size(); i++) args[chunk.size() + i] = LocalDate.parse(dayChunk.get(i));
+                stream("SELECT student_id, course_id, chapter_id, recommender_version, activity_day, session_seconds, mastery_seconds FROM analytics_key_days " +
+                                "WHERE course_id IN (" + placeholders(chunk.size()) + ") AND activity_day IN (" + placeholders(dayChunk.size()) + ")",
+                        args,
+                        rs -> consumer.accept(new KeyDayRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                                rs.getObject(5, LocalDate.class).toString(), rs.getLong(6), (Long) rs.getObject(7))));
+            }
+        }
+    }
+
+    @Transactional
+    public void upsertHistograms(List<HistogramRow> rows) {
+        if (rows.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO analytics_daily_histograms(course_id, recommender_version, activity_day, metric, sample_count, buckets) KEY(course_id, recommender_version, activity_day, metric) VALUES (?,?,?,?,?,?)",
+                rows.stream().map(r -> new Object[]{
+                        r.courseId(), r.version(), LocalDate.parse(r.day()), r.metric(), r.sampleCount(), r.buckets()
+                }).toList());
+    }
+
+    public List<HistogramRow> loadHistograms(String courseId, String version, String metric, String fromDay, String toDay) {
+        List<Object> args = new ArrayList<>(List.of(courseId, metric, LocalDate.parse(fromDay), LocalDate.parse(toDay)));
+        String versionFilter = "";
+        if (nullable(version) != null) {
+            versionFilter = " AND recommender_version = ?";
+            args.add(version);
+        }
         return jdbcTemplate.query(
-                "SELECT scope_type, student_id, course_id, chapter_id, recommender_version, learning_gain, time_to_mastery_seconds, recommendation_acceptance, drop_off, prerequisite_violation, computed_at, counters FROM analytics_aggregates",
-                (rs, n) -> new AnalyticsModels.AnalyticsAggregate(
-                        rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
-                        rs.getDouble(6), (Double) rs.getObject(7), rs.getDouble(8), rs.getDouble(9), rs.getDouble(10),
-                        Instant.parse(rs.getString(11)), parseCounters(rs.getString(12))
-                )
+                "SELECT course_id, recommender_version, activity_day, metric, sample_count, buckets FROM analytics_daily_histograms " +
+                        "WHERE course_id = ? AND metric = ? AND activity_day >= ? AND activity_day <= ?" + versionFilter,
+                (rs, n) -> new HistogramRow(rs.getString(1), rs.getString(2), rs.getObject(3, LocalDate.class).toString(), rs.getString(4), rs.getLong(5), rs.getString(6)),
+                args.toArray()
         );
     }
+
+    private AnalyticsModels.AnalyticsAggregate mapAggregate(ResultSet rs) throws SQLException {
+        return new AnalyticsModels.AnalyticsAggregate(
+                rs.getString(1), rs.getString(2), rs.getString(3), rs.getString(4), rs.getString(5),
+                rs.getDouble(6), (Double) rs.getObject(7), rs.getDouble(8), rs.getDouble(9), rs.getDouble(10),
+                rs.getObject(11, Instant.class), parseCounters(rs.getString(12)),
+                rs.getObject(13, Instant.class), rs.getObject(14, Instant.class)
+        );
+    }
+
+    private String aggregateFilter(String scope, String studentId, String courseId, String chapterId, List<Object> args) {
+        StringBuilder where = new StringBuilder("WHERE scope_type = ?");
+        args.add(scope);
+        appendEquals(where, args, "student_id", studentId);
+        appendEquals(where, args, "course_id", courseId);
+        appendEquals(where, args, "chapter_id", chapterId);
+        return where.toString();
+    }
+
+    private void appendEquals(StringBuilder where, List<Object> args, String column, String value) {
+        if (nullable(value) == null) return;
+        where.append(" AND ").append(column).append(" = ?");
+        args.add(value);
+    }
+
+    private String nullable(String value) {
+        return value == null || value.isBlank() ? null : value;
+    }
+
+    private void stream(String sql, Object[] args, RowCallbackHandler handler) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
+            for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            return ps;
+        }, handler);
+    }
+
+    /**
+     * Streams {@code prefix (student_id, course_id, chapter_id) IN (...) suffix} over chunks of {@code keys},
+     * binding {@code leading} first when it is not null.
+     */
+    private void streamChapterKeys(String prefix, String suffix, Object leading, Collection<ChapterKeyRow> keys,
+                                   RowCallbackHandler handler) {
+        List<ChapterKeyRow> all = new ArrayList<>(keys);
+        for (int from = 0; from < all.size(); from += IN_CHUNK / 3) {
+            List<ChapterKeyRow> chunk = all.subList(from, Math.min(all.size(), from + IN_CHUNK / 3));
+            List<Object> args = new ArrayList<>(chunk.size() * 3 + 1);
+            if (leading != null) args.add(leading);
+            chunk.forEach(k -> args.addAll(Arrays.asList(k.studentId(), k.courseId(), k.chapterId())));
+            stream(prefix + " (student_id, course_id, chapter_id) IN (" +
+                            String.join(",", Collections.nCopies(chunk.size(), "(?,?,?)")) + ")" + suffix,
+                    args.toArray(), handler);
+        }
+    }
+
+    private List<List<String>> chunks(Collection<String> values) {
+        List<String> all = new ArrayList<>(values);
+        List<List<String>> out = new ArrayList<>();
+        for (int i = 0; i < all.size(); i += IN_CHUNK) {
+            out.add(all.subList(i, Math.min(all.size(), i + IN_CHUNK)));
+        }
+        return out;
+    }
+
+    private String placeholders(int count) {
+        return String.join(",", Collections.nCopies(count, "?"));
+    }
+
+    private Object[] withLeading(Object first, List<String> rest) {
+        Object[] args = new Object[rest.size() + 1];
+        args[0] = first;
+        for (int i = 0; i < rest.size(); i++) args[i + 1] = rest.get(i);
+        return args;
+    }
+
     private String toCountersString(Map<String, Double> counters) {
         return counters.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).reduce((a, b) -> a + ";" + b).orElse("");
     }
@@ -97,6 +453,16 @@ public class AnalyticsJdbcRepository {
     }
 
     public record EventRow(String studentId, String courseId, String chapterId, String eventType, Instant ts, String payload, String recommenderVersion) {}
-    public record RecommendationRow(String studentId, String courseId, String chapterId, Instant ts) {}
-    public record PrerequisiteRow(String chapterId, String prerequisiteChapterId) {}
+    public record EventSummaryRow(String chapterId, String eventType, String termKey) {}
+    public record RecommendationCountRow(ChapterKeyRow key, long shown) {}
+    public record PrerequisiteRow(String courseId, String chapterId, String prerequisiteChapterId) {}
+    public record KeyDayRow(String studentId, String courseId, String chapterId, String version, String day,
+                            long sessionSeconds, Long masterySeconds) {}
+    public record HistogramRow(String courseId, String version, String day, String metric, long sampleCount, String buckets) {}
+    public record AggregateCursor(String studentId, String courseId, String chapterId, String version) {}
+    public record KeyRollupRow(String studentId, String courseId, String chapterId, String version,
+                               long opens, long completes, long answerSubmits, long termClicks, long acceptances,
+                               Long firstOpenMs, Long firstCompleteMs) {}
+    public record CourseRollupRow(String courseId, String eventType, String dimensionKey, long occurrences) {}
+    public record ChapterKeyRow(String studentId, String courseId, String chapterId) {}
 }
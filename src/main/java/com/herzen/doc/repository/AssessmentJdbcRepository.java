@@ -1,11 +1,20 @@
 package com.herzen.doc.repository;
 
+import com.herzen.doc.analytics.LearningEventTypes;
+import com.herzen.doc.assessment.AssessmentModels.AssessmentQuestion;
+import com.herzen.doc.assessment.AssessmentModels.AssessmentSession;
+import com.herzen.doc.assessment.AssessmentModels.HistoricalTally;
 import com.herzen.doc.assessment.AssessmentModels.LearningEvent;
 import com.herzen.doc.assessment.AssessmentModels.TermKnowledge;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
-import java.util.List;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Repository
 public class AssessmentJdbcRepository {
@@ -16,9 +25,50 @@ public class AssessmentJdbcRepository {
     }
 
     public void saveKnowledge(List<TermKnowledge> knowledge) {
-        knowledge.forEach(k -> jdbcTemplate.update(
+        if (knowledge.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
                 "MERGE INTO student_knowledge(student_id, course_id, term_key, mastery_score, confidence_score) KEY(student_id, course_id, term_key) VALUES (?,?,?,?,?)",
-                k.studentId(), k.courseId(), k.termKey(), k.masteryScore(), k.confidenceScore()));
+                knowledge.stream().map(k -> new Object[]{k.studentId(), k.courseId(), k.termKey(), k.masteryScore(), k.confidenceScore()}).toList());
+    }
+
+    @Transactional
+    public void saveSubmission(List<TermKnowledge> knowledge, List<LearningEvent> events) {
+        saveKnowledge(knowledge);
+        saveEvents(events);
+    }
+
+    /**
+     * Folds imported answer tallies into the stored knowledge rows and writes the matching events in
+     * one transaction. An existing row counts as {@code confidence * 3} attempts at its mastery, the
+     * same weight its confidence was derived from. Returns the resulting rows.
+     */
+    @Transactional
+    public List<TermKnowledge> saveHistory(List<HistoricalTally> tallies, List<LearningEvent> events) {
+        if (!tallies.isEmpty()) {
+            jdbcTemplate.batchUpdate(
+                    "MERGE INTO student_knowledge t USING (VALUES (CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), CAST(? AS VARCHAR(128)), CAST(? AS INT), CAST(? AS INT))) " +
+                            "AS s(student_id, course_id, term_key, attempts, correct) " +
+                            "ON t.student_id = s.student_id AND t.course_id = s.course_id AND t.term_key = s.term_key " +
+                            "WHEN MATCHED THEN UPDATE SET mastery_score = (t.mastery_score * t.confidence_score * 3 + s.correct) / (t.confidence_score * 3 + s.attempts), " +
+                            "confidence_score = LEAST(1.0, t.confidence_score + CAST(s.attempts AS DOUBLE) / 3) " +
+                            "WHEN NOT MATCHED THEN INSERT (student_id, course_id, term_key, mastery_score, confidence_score) " +
+                            "VALUES (s.student_id, s.course_id, s.term_key, CAST(s.correct AS DOUBLE) / s.attempts, LEAST(1.0, CAST(s.attempts AS DOUBLE) / 3))",
+                    tallies.stream().map(t -> new Object[]{t.studentId(), t.courseId(), t.termKey(), t.attempts(), t.correct()}).toList());
+        }
+        saveEvents(events);
+        if (tallies.isEmpty()) return List.of();
+
+        Set<List<String>> keys = tallies.stream()
+                .map(t -> List.of(t.studentId(), t.courseId(), t.termKey()))
+                .collect(Collectors.toSet());
+        List<String> students = tallies.stream().map(HistoricalTally::studentId).distinct().toList();
+        return jdbcTemplate.query(
+                        "SELECT student_id, course_id, term_key, mastery_score, confidence_score FROM student_knowledge WHERE student_id IN (" +
+                                String.join(",", Collections.nCopies(students.size(), "?")) + ")",
+                        (rs, rowNum) -> new TermKnowledge(rs.getString(1), rs.getString(2), rs.getString(3), rs.getDouble(4), rs.getDouble(5)),
+                        students.toArray()).stream()
+                .filter(k -> keys.contains(List.of(k.studentId(), k.courseId(), k.termKey())))
+                .toList();
     }
 
     public List<TermKnowledge> loadKnowledge(String studentId, String courseId) {
@@ -28,9 +78,116 @@ public class AssessmentJdbcRepository {
                 studentId, courseId);
     }
 
+    public List<TermKnowledge> loadCourseKnowledge(String courseId) {
+        return jdbcTemplate.query(
+                "SELECT student_id, course_id, term_key, mastery_score, confidence_score FROM student_knowledge WHERE course_id=?",
+                (rs, rowNum) -> new TermKnowledge(rs.getString(1), rs.getString(2), rs.getString(3), rs.getDouble(4), rs.getDouble(5)),
+                courseId);
+    }
+
+    /** Streams a course's knowledge rows grouped by student, without materialising the course. */
+    public void scanCourseKnowledge(String courseId, Consumer<TermKnowledge> consumer) {
+        jdbcTemplate.query(
+                "SELECT student_id, course_id, term_key, mastery_score, confidence_score FROM student_knowledge WHERE course_id=? ORDER BY student_id",
+                (RowCallbackHandler) rs -> consumer.accept(new TermKnowledge(rs.getString(1), rs.getString(2), rs.getString(3), rs.getDouble(4), rs.getDouble(5))),
+                courseId);
+    }
+
+    public CourseKnowledgeSize loadCourseKnowledgeSize(String courseId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT COUNT(DISTINCT student_id), COUNT(DISTINCT term_key) FROM student_knowledge WHERE course_id=?",
+                (rs, rowNum) -> new CourseKnowledgeSize(rs.getInt(1), rs.getInt(2)),
+                courseId);
+    }
+
+    public List<String> loadCourseStudentIds(String courseId) {
+        return jdbcTemplate.queryForList(
+                "SELECT DISTINCT student_id FROM student_knowledge WHERE course_id=?",
+                String.class,
+                courseId);
+    }
+
     public void saveEvents(List<LearningEvent> events) {
-        events.forEach(e -> jdbcTemplate.update(
-                "INSERT INTO learning_events(student_id, course_id, chapter_id, event_type, ts, payload, recommender_version) VALUES (?,?,?,?,?,?,?)",
-                e.studentId(), e.courseId(), e.chapterId(), e.eventType(), e.ts().toString(), e.payload(), e.recommenderVersion()));
+        if (events.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO learning_events(student_id, course_id, chapter_id, event_type, ts, payload, recommender_version, term_key, session_id, answers) VALUES (?,?,?,?,?,?,?,?,?,?)",
+                events.stream().map(e -> new Object[]{e.studentId(), e.courseId(), e.chapterId(), e.eventType(), e.ts(), e.payload(), e.recommenderVersion(),
+                        LearningEventTypes.payloadValue(e.payload(), "term"),
+                        LearningEventTypes.payloadValue(e.payload(), "session"),
+                        LearningEventTypes.payloadInt(e.payload(), "answers")}).toList());
+    }
+
+    public void saveSessions(List<SessionRow> rows) {
+        if (rows.isEmpty()) return;
+        jdbcTemplate.batchUpdate(
+                "MERGE INTO assessment_sessions(session_id, course_id, started_at, asked_terms, refinement_issued, last_access_ms) KEY(session_id) VALUES (?,?,?,?,?,?)",
+                rows.stream().map(r -> new Object[]{
+                        r.session().sessionId(), r.session().courseId(), r.session().startedAt(),
+                        String.join(",", r.session().askedTerms()), r.session().refinementIssued(), r.lastAccessMs()
+                }).toList());
     }
+
+    public void deleteSessions(List<String> sessionIds) {
+        if (sessionIds.isEmpty()) return;
+        jdbcTemplate.batchUpdate("DELETE FROM assessment_sessions WHERE session_id = ?",
+                sessionIds.stream().map(id -> new Object[]{id}).toList());
+    }
+
+    public void deleteSessionsIdleBefore(long cutoffMs) {
+        jdbcTemplate.update("DELETE FROM assessment_sessions WHERE last_access_ms < ?", cutoffMs);
+    }
+
+    public SessionRow loadSession(String sessionId) {
+        List<SessionRow> rows = jdbcTemplate.query(
+                "SELECT session_id, course_id, started_at, asked_terms, refinement_issued, last_access_ms FROM assessment_sessions WHERE session_id = ?",
+                (rs, n) -> new SessionRow(new AssessmentSession(rs.getString(1), rs.getString(2), rs.getObject(3, Instant.class),
+                        parseTerms(rs.getString(4)), rs.getBoolean(5)), rs.getLong(6)),
+                sessionId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    @Transactional
+    public void replaceCourseQuestions(String courseId, List<AssessmentQuestion> questions) {
+        jdbcTemplate.update("DELETE FROM assessment_questions WHERE course_id = ?", courseId);
+        List<Object[]> rows = new ArrayList<>(questions.size());
+        for (int i = 0; i < questions.size(); i++) {
+            AssessmentQuestion q = questions.get(i);
+            rows.add(new Object[]{courseId, q.questionId(), q.termKey(), i, q.prompt(), String.join("\n", q.options()), q.correctOption()});
+        }
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO assessment_questions(course_id, question_id, term_key, ordinal, prompt, options, correct_option) VALUES (?,?,?,?,?,?,?)",
+                rows);
+    }
+
+    public List<AssessmentQuestion> loadCourseQuestions(String courseId) {
+        return jdbcTemplate.query(
+                "SELECT question_id, term_key, prompt, options, correct_option FROM assessment_questions WHERE course_id = ? ORDER BY ordinal",
+                (rs, n) -> new AssessmentQuestion(rs.getString(1), rs.getString(2), rs.getString(3),
+                        List.of(rs.getString(4).split("\n", -1)), rs.getString(5)),
+                courseId);
+    }
+
+    public Map<String, List<String>> loadChapterIntroducedTerms(String courseId) {
+        Map<String, List<String>> byChapter = new LinkedHashMap<>();
+        jdbcTemplate.query(
+                "SELECT chapter_id, term_key FROM chapter_terms WHERE course_id = ? AND role = 'introduces'",
+                rs -> {
+                    byChapter.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(rs.getString(2));
+                },
+                courseId);
+        return byChapter;
+    }
+
+    public List<String> loadQuestionBankCourseIds() {
+        return jdbcTemplate.queryForList("SELECT DISTINCT course_id FROM assessment_questions", String.class);
+    }
+
+    private Set<String> parseTerms(String value) {
+        if (value == null || value.isBlank()) return Set.of();
+        return Arrays.stream(value.split(",")).filter(s -> !s.isBlank()).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    public record CourseKnowledgeSize(int students, int terms) {}
+
+    public record SessionRow(AssessmentSession session, long lastAccessMs) {}
 }
@@ -0,0 +1,33 @@
+package com.herzen.doc.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.time.Instant;
+import java.util.List;
+
+@Repository
+public class ReplayJdbcRepository {
+    private final JdbcTemplate jdbcTemplate;
+
+    public ReplayJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public List<LoggedRecommendationRow> loadRecommendationLog(int limit) {
+        return jdbcTemplate.query(
+                "SELECT id, student_id, course_id, chapter_id, reason, ts FROM recommendation_log ORDER BY id LIMIT ?",
+                (rs, n) -> new LoggedRecommendationRow(rs.getLong(1), rs.getString(2), rs.getString(3), rs.getString(4),
+                        rs.getString(5), rs.getObject(6, Instant.class)),
+                limit <= 0 ? Integer.MAX_VALUE : limit);
+    }
+
+    public List<ChapterCompletionRow> loadChapterCompletions() {
+        return jdbcTemplate.query(
+                "SELECT student_id, course_id, chapter_id, ts FROM learning_events WHERE event_type = 'chapter_complete' AND chapter_id IS NOT NULL",
+                (rs, n) -> new ChapterCompletionRow(rs.getString(1), rs.getString(2), rs.getString(3), rs.getObject(4, Instant.class)));
+    }
+
+    public record LoggedRecommendationRow(long id, String studentId, String courseId, String chapterId, String reason, Instant ts) {}
+    public record ChapterCompletionRow(String studentId, String courseId, String chapterId, Instant ts) {}
+}
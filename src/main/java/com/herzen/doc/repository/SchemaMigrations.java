@@ -0,0 +1,66 @@
+package com.herzen.doc.repository;
+
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+import java.util.List;
+
+/**
+ * Runs {@code schema.sql} through the regular Spring SQL init and then applies the versioned
+ * scripts under {@code db/migration} whose version is not yet recorded in {@code schema_version}.
+ */
+@Configuration
+public class SchemaMigrations {
+    static final List<Migration> MIGRATIONS = List.of(
+            new Migration(2, "typed timestamps, structured payload columns and secondary indexes",
+                    "db/migration/V2__typed_columns_and_indexes.sql"),
+            new Migration(3, "typed activity days and session start timestamps",
+                    "db/migration/V3__typed_days_and_session_start.sql"),
+            new Migration(4, "client event ids for exact duplicate checks",
+                    "db/migration/V4__learning_event_ids.sql"),
+            new Migration(5, "first open and completion timestamps on aggregates",
+                    "db/migration/V5__aggregate_first_activity.sql"),
+            new Migration(6, "student chapter key index on learning events",
+                    "db/migration/V6__learning_event_chapter_index.sql")
+    );
+
+    @Bean
+    public SqlDataSourceScriptDatabaseInitializer dataSourceScriptDatabaseInitializer(DataSource dataSource,
+                                                                                     SqlInitializationProperties properties) {
+        return new VersionedInitializer(dataSource, properties);
+    }
+
+    public static int migrate(DataSource dataSource) {
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        int current = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(version), 0) FROM schema_version", Integer.class);
+        int applied = 0;
+        for (Migration migration : MIGRATIONS) {
+            if (migration.version() <= current) continue;
+            new ResourceDatabasePopulator(new ClassPathResource(migration.script())).execute(dataSource);
+            jdbcTemplate.update("INSERT INTO schema_version(version, description, applied_at) VALUES (?,?,CURRENT_TIMESTAMP)",
+                    migration.version(), migration.description());
+            applied++;
+        }
+        return applied;
+    }
+
+    record Migration(int version, String description, String script) {}
+
+    static class VersionedInitializer extends SqlDataSourceScriptDatabaseInitializer {
+        VersionedInitializer(DataSource dataSource, SqlInitializationProperties properties) {
+            super(dataSource, properties);
+        }
+
+        @Override
+        public boolean initializeDatabase() {
+            boolean initialized = super.initializeDatabase();
+            return migrate(getDataSource()) > 0 || initialized;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+ALTER TABLE learning_events DROP COLUMN IF EXISTS event_day;
+ALTER TABLE learning_events ALTER COLUMN ts SET DATA TYPE TIMESTAMP(9) WITH TIME ZONE;
+ALTER TABLE learning_events ADD COLUMN IF NOT EXISTS event_day DATE GENERATED ALWAYS AS (CAST(ts AT TIME ZONE 'UTC' AS DATE));
+ALTER TABLE learning_events ADD COLUMN IF NOT EXISTS term_key VARCHAR(128);
+ALTER TABLE learning_events ADD COLUMN IF NOT EXISTS session_id VARCHAR(64);
+ALTER TABLE learning_events ADD COLUMN IF NOT EXISTS answers INT;
+
+UPDATE learning_events
+SET term_key = REGEXP_SUBSTR(payload, '(^|,)term=([^,]*)', 1, 1, NULL, 2),
+    session_id = REGEXP_SUBSTR(payload, '(^|,)session=([^,]*)', 1, 1, NULL, 2),
+    answers = CAST(REGEXP_SUBSTR(payload, '(^|,)answers=([0-9]+)', 1, 1, NULL, 2) AS INT)
+WHERE payload IS NOT NULL AND term_key IS NULL AND session_id IS NULL AND answers IS NULL;
+
+ALTER TABLE recommendation_log ALTER COLUMN ts SET DATA TYPE TIMESTAMP(9) WITH TIME ZONE;
+ALTER TABLE analytics_aggregates ALTER COLUMN computed_at SET DATA TYPE TIMESTAMP(9) WITH TIME ZONE;
+
+CREATE INDEX IF NOT EXISTS idx_learning_events_day ON learning_events(event_day);
+CREATE INDEX IF NOT EXISTS idx_learning_events_course_ts ON learning_events(course_id, ts);
+CREATE INDEX IF NOT EXISTS idx_learning_events_student ON learning_events(student_id);
+CREATE INDEX IF NOT EXISTS idx_recommendation_log_key ON recommendation_log(student_id, course_id, chapter_id);
+CREATE INDEX IF NOT EXISTS idx_chapter_terms_chapter ON chapter_terms(course_id, chapter_id);
+CREATE INDEX IF NOT EXISTS idx_chapter_prerequisites_course ON chapter_prerequisites(course_id);
+CREATE INDEX IF NOT EXISTS idx_student_knowledge_course ON student_knowledge(course_id);
+CREATE INDEX IF NOT EXISTS idx_analytics_key_days_course ON analytics_key_days(course_id, activity_day);
@@ -0,0 +1,6 @@
+ALTER TABLE assessment_sessions ALTER COLUMN started_at SET DATA TYPE TIMESTAMP(9) WITH TIME ZONE;
+ALTER TABLE analytics_key_days ALTER COLUMN activity_day SET DATA TYPE DATE;
+ALTER TABLE analytics_daily_histograms ALTER COLUMN activity_day SET DATA TYPE DATE;
+
+CREATE INDEX IF NOT EXISTS idx_analytics_daily_histograms_course ON analytics_daily_histograms(course_id, metric, activity_day);
+CREATE INDEX IF NOT EXISTS idx_analytics_aggregates_course ON analytics_aggregates(scope_type, course_id);
@@ -0,0 +1,3 @@
+ALTER TABLE learning_events ADD COLUMN IF NOT EXISTS event_id VARCHAR(128);
+
+CREATE INDEX IF NOT EXISTS idx_learning_events_event_id ON learning_events(event_id);
@@ -0,0 +1,2 @@
+ALTER TABLE analytics_aggregates ADD COLUMN IF NOT EXISTS first_open_at TIMESTAMP(9) WITH TIME ZONE;
+ALTER TABLE analytics_aggregates ADD COLUMN IF NOT EXISTS first_complete_at TIMESTAMP(9) WITH TIME ZONE;
@@ -0,0 +1,2 @@
+CREATE INDEX IF NOT EXISTS idx_learning_events_chapter_key ON learning_events(student_id, course_id, chapter_id);
+DROP INDEX IF EXISTS idx_learning_events_student;
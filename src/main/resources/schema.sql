@@ -36,7 +36,33 @@ CREATE TABLE IF NOT EXISTS learning_events (
     event_type VARCHAR(128) NOT NULL,
     ts VARCHAR(64) NOT NULL,
     payload CLOB,
-    recommender_version VARCHAR(128)
+    recommender_version VARCHAR(128),
+    event_day DATE GENERATED ALWAYS AS (CAST(SUBSTRING(ts, 1, 10) AS DATE))
+);
+
+CREATE INDEX IF NOT EXISTS idx_learning_events_day ON learning_events(event_day);
+
+CREATE TABLE IF NOT EXISTS learning_event_rollups (
+    student_id VARCHAR(128) NOT NULL,
+    course_id VARCHAR(128) NOT NULL,
+    chapter_id VARCHAR(128) NOT NULL,
+    recommender_version VARCHAR(128) NOT NULL,
+    opens BIGINT NOT NULL,
+    completes BIGINT NOT NULL,
+    answer_submits BIGINT NOT NULL,
+    term_clicks BIGINT NOT NULL,
+    acceptances BIGINT NOT NULL,
+    first_open_ms BIGINT,
+    first_complete_ms BIGINT,
+    PRIMARY KEY (student_id, course_id, chapter_id, recommender_version)
+);
+
+CREATE TABLE IF NOT EXISTS learning_event_course_rollups (
+    course_id VARCHAR(128) NOT NULL,
+    event_type VARCHAR(128) NOT NULL,
+    dimension_key VARCHAR(256) NOT NULL,
+    occurrences BIGINT NOT NULL,
+    PRIMARY KEY (course_id, event_type, dimension_key)
 );
 
 CREATE TABLE IF NOT EXISTS recommendation_log (
@@ -65,3 +91,59 @@ CREATE TABLE IF NOT EXISTS analytics_aggregates (
     counters CLOB,
     PRIMARY KEY (scope_type, student_id, course_id, chapter_id, recommender_version)
 );
+
+CREATE TABLE IF NOT EXISTS analytics_key_days (
+    student_id VARCHAR(128) NOT NULL,
+    course_id VARCHAR(128) NOT NULL,
+    chapter_id VARCHAR(128) NOT NULL,
+    recommender_version VARCHAR(128) NOT NULL,
+    activity_day VARCHAR(10) NOT NULL,
+    session_seconds BIGINT NOT NULL,
+    mastery_seconds BIGINT,
+    PRIMARY KEY (student_id, course_id, chapter_id, recommender_version, activity_day)
+);
+
+CREATE TABLE IF NOT EXISTS analytics_daily_histograms (
+    course_id VARCHAR(128) NOT NULL,
+    recommender_version VARCHAR(128) NOT NULL,
+    activity_day VARCHAR(10) NOT NULL,
+    metric VARCHAR(64) NOT NULL,
+    sample_count BIGINT NOT NULL,
+    buckets CLOB,
+    PRIMARY KEY (course_id, recommender_version, activity_day, metric)
+);
+
+CREATE TABLE IF NOT EXISTS analytics_watermarks (
+    name VARCHAR(64) PRIMARY KEY,
+    last_id BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS assessment_sessions (
+    session_id VARCHAR(64) PRIMARY KEY,
+    course_id VARCHAR(128) NOT NULL,
+    started_at VARCHAR(64) NOT NULL,
+    asked_terms CLOB,
+    refinement_issued BOOLEAN NOT NULL,
+    last_access_ms BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS assessment_questions (
+    course_id VARCHAR(128) NOT NULL,
+    question_id VARCHAR(255) NOT NULL,
+    term_key VARCHAR(128) NOT NULL,
+    ordinal INT NOT NULL,
+    prompt CLOB NOT NULL,
+    options CLOB NOT NULL,
+    correct_option CLOB NOT NULL,
+    PRIMARY KEY (course_id, question_id)
+);
+
+CREATE TABLE IF NOT EXISTS schema_version (
+    version INT PRIMARY KEY,
+    description VARCHAR(255) NOT NULL,
+    applied_at TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+INSERT INTO schema_version(version, description, applied_at)
+SELECT 1, 'baseline', CURRENT_TIMESTAMP
+WHERE NOT EXISTS (SELECT 1 FROM schema_version WHERE version = 1);
@@ -18,6 +18,16 @@ const state = {
   termLabels: {}
 };
 
+const EVENT_FLUSH_INTERVAL_MS = 5000;
+const EVENT_FLUSH_SIZE = 25;
+const EVENT_RETRY_LIMIT = 3;
+const EVENT_RETRY_BASE_MS = 1000;
+
+const eventQueue = {
+  batch: null,
+  timer: null
+};
+
 const assessmentEls = {
   studentId: document.getElementById('student-id'),
   courseId: document.getElementById('course-id'),
@@ -55,6 +65,10 @@ assessmentEls.form.addEventListener('submit', handleNextQuestion);
 assessmentEls.submitBtn.addEventListener('click', submitAssessment);
 readingEls.backBtn.addEventListener('click', closeDefinitionPanel);
 window.addEventListener('scroll', persistReadingPosition);
+window.addEventListener('pagehide', () => flushEvents({ beacon: true }));
+document.addEventListener('visibilitychange', () => {
+  if (document.visibilityState === 'hidden') flushEvents({ beacon: true });
+});
 
 function normalizeTermMentions(text) {
   if (!text) return '';
@@ -361,18 +375,67 @@ function restoreReadingPosition() {
 
 function emitEvent(eventType, options = {}) {
   if (!state.studentId || !state.courseId) return;
-  const event = {
-    studentId: state.studentId,
-    courseId: state.courseId,
+  const batch = eventQueue.batch;
+  if (batch && (batch.studentId !== state.studentId
+      || batch.courseId !== state.courseId
+      || batch.recommenderVersion !== state.recommenderVersion)) {
+    flushEvents();
+  }
+  if (!eventQueue.batch) {
+    eventQueue.batch = {
+      studentId: state.studentId,
+      courseId: state.courseId,
+      recommenderVersion: state.recommenderVersion,
+      events: []
+    };
+  }
+  eventQueue.batch.events.push({
+    eventId: newEventId(),
     chapterId: options.chapterId || null,
     eventType,
     ts: new Date().toISOString(),
-    payload: options.payload || '',
-    recommenderVersion: state.recommenderVersion
+    payload: options.payload || ''
+  });
+  if (eventQueue.batch.events.length >= EVENT_FLUSH_SIZE) {
+    flushEvents();
+  } else if (!eventQueue.timer) {
+    eventQueue.timer = setTimeout(() => flushEvents(), EVENT_FLUSH_INTERVAL_MS);
+  }
+}
+
+function flushEvents(options = {}) {
+  if (eventQueue.timer) {
+    clearTimeout(eventQueue.timer);
+    eventQueue.timer = null;
+  }
+  const batch = eventQueue.batch;
+  eventQueue.batch = null;
+  if (!batch || batch.events.length === 0) return;
+  const body = JSON.stringify(batch);
+  if (options.beacon && navigator.sendBeacon
+      && navigator.sendBeacon('/api/analytics/events', new Blob([body], { type: 'application/json' }))) {
+    return;
+  }
+  sendEvents(body, options.beacon === true, 0);
+}
+
+function sendEvents(body, keepalive, attempt) {
+  const retry = () => {
+    if (attempt + 1 < EVENT_RETRY_LIMIT) {
+      setTimeout(() => sendEvents(body, keepalive, attempt + 1), EVENT_RETRY_BASE_MS * 2 ** attempt);
+    }
   };
   fetch('/api/analytics/events', {
     method: 'POST',
     headers: { 'Content-Type': 'application/json' },
-    body: JSON.stringify({ events: [event] })
-  }).catch(() => undefined);
+    body,
+    keepalive
+  }).then((response) => {
+    if (response.status >= 500 || response.status === 429) retry();
+  }).catch(retry);
+}
+
+function newEventId() {
+  if (window.crypto?.randomUUID) return window.crypto.randomUUID();
+  return `${Date.now().toString(36)}-${Math.random().toString(36).slice(2, 12)}`;
 }
@@ -6,7 +6,12 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import javax.sql.DataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.util.List;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -15,6 +20,8 @@ import static org.junit.jupiter.api.Assertions.*;
 class AnalyticsServiceTest {
     @Autowired
     private AnalyticsService analyticsService;
+    @Autowired
+    private DataSource dataSource;
 
     @Test
     void ingestsEventsAndBuildsOverview() {
@@ -71,4 +78,237 @@ class AnalyticsServiceTest {
         assertTrue(overview.aggregates().stream().anyMatch(a -> "ch-valid".equals(a.chapterId())));
     }
 
+    @Test
+    void buffersValidEventsAndRejectsIncompleteOnes() {
+        long persistedBefore = analyticsService.ingestStats().persisted();
+        var request = new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-d", "course-d", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn(null, "course-d", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-d", null, "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-d", "course-d", "ch-1", null, Instant.now(), "", "v1")
+        ));
+
+        var ack = analyticsService.ingest(request);
+        assertEquals(1, ack.accepted());
+        assertEquals(0, ack.rejected());
+        assertEquals(3, ack.invalid());
+
+        analyticsService.recomputeAggregates();
+        var stats = analyticsService.ingestStats();
+        assertEquals(0, stats.queued());
+        assertTrue(stats.persisted() >= persistedBefore + 1);
+    }
+
+    @Test
+    void compactBatchEventsInheritSharedFields() {
+        var request = new AnalyticsModels.LearningEventIngestRequest("st-e", "course-e", "hybrid", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_open", Instant.now(), "", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now().plusSeconds(1), "term=x", null)
+        ));
+
+        assertEquals(2, analyticsService.ingest(request).accepted());
+
+        analyticsService.recomputeAggregates();
+        var overview = analyticsService.overview("st-e", "course-e", "ch-1");
+        assertFalse(overview.aggregates().isEmpty());
+        assertEquals("hybrid", overview.aggregates().get(0).recommenderVersion());
+    }
+
+    @Test
+    void incrementalRecomputeRefreshesOnlyTouchedKeys() {
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-f", "course-f", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-g", "course-f", "ch-1", "chapter_open", Instant.now(), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+        var untouched = analyticsService.overview("st-g", "course-f", "ch-1").aggregates().get(0);
+
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-f", "course-f", "ch-1", "chapter_complete", Instant.now().plusSeconds(5), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+
+        var refreshed = analyticsService.overview("st-f", "course-f", "ch-1").aggregates().get(0);
+        assertEquals(1.0, refreshed.learningGain(), 1e-9);
+        assertEquals(1, analyticsService.recomputeStats().lastKeys());
+        assertFalse(analyticsService.recomputeStats().running());
+        assertEquals(untouched.computedAt(), analyticsService.overview("st-g", "course-f", "ch-1").aggregates().get(0).computedAt());
+    }
+
+    @Test
+    void incrementalRecomputePicksUpRowsCommittedBelowTheWatermark() throws Exception {
+        try (Connection late = dataSource.getConnection()) {
+            late.setAutoCommit(false);
+            try (PreparedStatement ps = late.prepareStatement(
+                    "INSERT INTO learning_events(student_id, course_id, chapter_id, event_type, ts) VALUES (?,?,?,?,?)")) {
+                ps.setString(1, "st-late");
+                ps.setString(2, "course-late");
+                ps.setString(3, "ch-1");
+                ps.setString(4, "chapter_open");
+                ps.setObject(5, Instant.now());
+                ps.executeUpdate();
+            }
+            analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                    new AnalyticsModels.EventIn("st-early", "course-late", "ch-1", "chapter_open", Instant.now(), "", "v1")
+            )));
+            analyticsService.recomputeAggregates();
+            assertFalse(analyticsService.overview("st-early", "course-late", "ch-1").aggregates().isEmpty());
+            assertTrue(analyticsService.overview("st-late", "course-late", "ch-1").aggregates().isEmpty());
+            late.commit();
+        }
+
+        analyticsService.recomputeAggregates();
+        assertFalse(analyticsService.overview("st-late", "course-late", "ch-1").aggregates().isEmpty());
+    }
+
+    @Test
+    void bottleneckSketchTracksClicksIngestedAfterSeeding() {
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-h", "course-h", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=graph", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=graph", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=graph", null)
+        )));
+        analyticsService.recomputeAggregates();
+        assertEquals(1, analyticsService.bottlenecks("course-h").bottlenecks().size());
+
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-h", "course-h", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=tree", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=tree", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=tree", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=graph", null)
+        )));
+        analyticsService.recomputeAggregates();
+
+        var sketched = analyticsService.bottlenecks("course-h");
+        assertEquals(analyticsService.bottlenecks("course-h", true), sketched);
+        assertEquals("graph", sketched.bottlenecks().get(0).key());
+        assertEquals(4, sketched.bottlenecks().get(0).occurrences());
+    }
+
+    @Test
+    void comparesVersionsFromCourseRollupsWithConfidenceIntervals() {
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-r1", "course-r", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-r1", "course-r", "ch-1", "chapter_complete", Instant.now().plusSeconds(4), "", "v1"),
+                new AnalyticsModels.EventIn("st-r2", "course-r", "ch-1", "chapter_open", Instant.now(), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+
+        var rows = analyticsService.compareByVersion("course-r").rows();
+        assertEquals(1, rows.size());
+        assertEquals(2, rows.get(0).sampleSize());
+        assertEquals(0.5, rows.get(0).avgLearningGain(), 1e-9);
+        assertTrue(rows.get(0).learningGainCi95() > 0.0);
+
+        var chapters = analyticsService.compareChapters("course-r").rows();
+        assertEquals(1, chapters.size());
+        assertEquals("ch-1", chapters.get(0).chapterId());
+        assertEquals(2, chapters.get(0).metrics().sampleSize());
+    }
+
+    @Test
+    void incrementalRecomputeAppliesDeltasToCourseRollups() {
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-d1", "course-d", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-d2", "course-d", "ch-1", "chapter_open", Instant.now(), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-d1", "course-d", "ch-1", "chapter_complete", Instant.now().plusSeconds(6), "", "v1"),
+                new AnalyticsModels.EventIn("st-d3", "course-d", "ch-2", "chapter_open", Instant.now(), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+        var incremental = analyticsService.compareByVersion("course-d").rows();
+        var incrementalChapters = analyticsService.compareChapters("course-d").rows();
+
+        analyticsService.recomputeAggregates(true);
+        var rebuilt = analyticsService.compareByVersion("course-d").rows();
+        assertEquals(3, rebuilt.get(0).sampleSize());
+        assertEquals(rebuilt.get(0).sampleSize(), incremental.get(0).sampleSize());
+        assertEquals(rebuilt.get(0).avgLearningGain(), incremental.get(0).avgLearningGain(), 1e-9);
+        assertEquals(rebuilt.get(0).learningGainCi95(), incremental.get(0).learningGainCi95(), 1e-9);
+        assertEquals(analyticsService.compareChapters("course-d").rows().size(), incrementalChapters.size());
+    }
+
+    @Test
+    void answersTimeToMasteryPercentilesFromDailyHistograms() {
+        Instant now = Instant.now();
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-l1", "course-l", "ch-1", "chapter_open", now, "", "v1"),
+                new AnalyticsModels.EventIn("st-l1", "course-l", "ch-1", "chapter_complete", now.plusSeconds(10), "", "v1"),
+                new AnalyticsModels.EventIn("st-l2", "course-l", "ch-1", "chapter_open", now, "", "v1"),
+                new AnalyticsModels.EventIn("st-l2", "course-l", "ch-1", "chapter_complete", now.plusSeconds(600), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+
+        var latency = analyticsService.latency("course-l", "v1", "time_to_mastery", 14);
+        assertEquals(2, latency.samples());
+        assertEquals(10.0, latency.p50(), 1.0);
+        assertEquals(600.0, latency.p90(), 600.0 * 0.07);
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.latency("course-l", null, "bogus", 14));
+    }
+
+    @Test
+    void pagesOverviewWithKeysetCursor() {
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-p1", "course-p", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-p2", "course-p", "ch-1", "chapter_open", Instant.now(), "", "v1"),
+                new AnalyticsModels.EventIn("st-p3", "course-p", "ch-1", "chapter_open", Instant.now(), "", "v1")
+        )));
+        analyticsService.recomputeAggregates();
+
+        var first = analyticsService.overview(null, "course-p", null, null, 2);
+        assertEquals(List.of("st-p1", "st-p2"), first.aggregates().stream().map(AnalyticsModels.AnalyticsAggregate::studentId).toList());
+        assertNotNull(first.nextCursor());
+
+        var second = analyticsService.overview(null, "course-p", null, first.nextCursor(), 2);
+        assertEquals(List.of("st-p3"), second.aggregates().stream().map(AnalyticsModels.AnalyticsAggregate::studentId).toList());
+        assertNull(second.nextCursor());
+        assertThrows(IllegalArgumentException.class, () -> analyticsService.overview(null, "course-p", null, "bm90LWEtY3Vyc29y", 2));
+    }
+
+    @Test
+    void compactsExpiredDaysIntoRollupsWithoutChangingAggregates() {
+        Instant old = Instant.parse("2001-03-04T10:00:00Z");
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-c", "course-c", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_open", old, "", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", old.plusSeconds(1), "term=stack", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", old.plusSeconds(2), "term=stack", null),
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_complete", old.plusSeconds(30), "", null)
+        )));
+        analyticsService.recomputeAggregates();
+        var before = analyticsService.overview("st-c", "course-c", "ch-1").aggregates().get(0);
+        var bottlenecksBefore = analyticsService.bottlenecks("course-c", true);
+
+        var result = analyticsService.compactEventsBefore(LocalDate.parse("2001-03-05"));
+        assertTrue(result.compactedEvents() >= 4);
+
+        analyticsService.recomputeAggregates(true);
+        var after = analyticsService.overview("st-c", "course-c", "ch-1").aggregates().get(0);
+        assertEquals(before.learningGain(), after.learningGain(), 1e-9);
+        assertEquals(before.timeToMasterySeconds(), after.timeToMasterySeconds());
+        assertEquals(before.counters(), after.counters());
+        assertEquals(bottlenecksBefore, analyticsService.bottlenecks("course-c", true));
+        assertTrue(analyticsService.bottlenecks("course-c", true, 7).bottlenecks().isEmpty());
+    }
+
+    @Test
+    void dropsRetriedEventsWithTheSameEventId() {
+        Instant now = Instant.now();
+        var first = new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", now, "term=queue", null, "evt-dedup-1");
+        var second = new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", now, "term=queue", null, "evt-dedup-2");
+        var third = new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", now, "term=queue", null, "evt-dedup-3");
+        var ack = analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-u", "course-u", "v1", List.of(first, second, third, first)));
+        assertEquals(3, ack.accepted());
+        assertEquals(1, ack.duplicates());
+        assertEquals(0, ack.rejected());
+
+        var retry = analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-u", "course-u", "v1", List.of(first, second)));
+        assertEquals(0, retry.accepted());
+        assertEquals(2, retry.duplicates());
+
+        analyticsService.recomputeAggregates();
+        assertEquals(3, analyticsService.bottlenecks("course-u", true).bottlenecks().get(0).occurrences());
+        assertTrue(analyticsService.dedupStats().duplicates() >= 3);
+    }
 }
@@ -1,13 +1,25 @@
 package com.herzen.doc;
 
+import com.herzen.doc.assessment.AssessmentHistoryImportService;
 import com.herzen.doc.assessment.AssessmentModels;
 import com.herzen.doc.assessment.AssessmentService;
+import com.herzen.doc.assessment.AssessmentSessionStore;
+import com.herzen.doc.assessment.QuestionBankBuilder;
+import com.herzen.doc.dictionary.KeyDictionary;
+import com.herzen.doc.knowledge.CourseStudentCounter;
+import com.herzen.doc.knowledge.StudentKnowledgeStore;
+import com.herzen.doc.repository.AssessmentJdbcRepository;
 import com.herzen.doc.service.CourseImportService;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -19,6 +31,24 @@ class AssessmentServiceTest {
     @Autowired
     private AssessmentService assessmentService;
 
+    @Autowired
+    private AssessmentJdbcRepository assessmentRepository;
+
+    @Autowired
+    private StudentKnowledgeStore knowledgeStore;
+
+    @Autowired
+    private AssessmentHistoryImportService historyImportService;
+
+    @Autowired
+    private CourseStudentCounter studentCounter;
+
+    @Autowired
+    private KeyDictionary dictionary;
+
+    @Autowired
+    private AssessmentSessionStore sessionStore;
+
     @Test
     void runsAssessmentAndStoresKnowledgeProfile() {
         String course = """
@@ -94,4 +124,141 @@ class AssessmentServiceTest {
         assertTrue(question.options().stream().noneMatch(option -> option.contains(" — ")));
     }
 
+    @Test
+    void sessionStoreEvictsOverflowAndRestoresPersistedSessions() {
+        var store = new AssessmentSessionStore(assessmentRepository, 60_000, 2, "h2");
+        for (String id : List.of("s-1", "s-2", "s-3")) {
+            store.create(new AssessmentModels.AssessmentSession(id, "store-course", Instant.now(), Set.of("t1"), false));
+        }
+        assertNull(store.get("s-1"));
+        assertEquals(1, store.stats().evicted());
+
+        store.flush();
+        var restarted = new AssessmentSessionStore(assessmentRepository, 60_000, 2, "h2");
+        var restored = restarted.get("s-3");
+        assertNotNull(restored);
+        assertEquals(Set.of("t1"), restored.askedTerms());
+        assertNull(restarted.get("s-1"));
+        assertEquals(1, restarted.stats().restored());
+    }
+
+    @Test
+    void sweepKeepsPersistedRowsOfSessionsAccessedInMemory() {
+        var store = new AssessmentSessionStore(assessmentRepository, 60_000, 10, "h2");
+        var session = new AssessmentModels.AssessmentSession("s-live", "store-course", Instant.now(), Set.of("t1"), false);
+        store.create(session);
+        store.flush();
+        assessmentRepository.saveSessions(List.of(new AssessmentJdbcRepository.SessionRow(session, System.currentTimeMillis() - 120_000)));
+
+        assertNotNull(store.get("s-live"));
+        store.sweep();
+
+        var restarted = new AssessmentSessionStore(assessmentRepository, 60_000, 10, "h2");
+        assertNotNull(restarted.get("s-live"));
+    }
+
+    @Test
+    void oversizedCourseCohortIsFoldedFromRowsWithoutLoadingAMatrix() {
+        assessmentRepository.saveKnowledge(List.of(
+                new AssessmentModels.TermKnowledge("big-1", "big-course", "t1", 0.8, 1.0),
+                new AssessmentModels.TermKnowledge("big-1", "big-course", "t2", 0.6, 1.0),
+                new AssessmentModels.TermKnowledge("big-2", "big-course", "t1", 0.4, 1.0),
+                new AssessmentModels.TermKnowledge("big-2", "big-course", "t2", 0.2, 1.0),
+                new AssessmentModels.TermKnowledge("big-3", "big-course", "t3", 1.0, 1.0),
+                new AssessmentModels.TermKnowledge("big-self", "big-course", "t1", 1.0, 1.0)
+        ));
+        var store = new StudentKnowledgeStore(assessmentRepository, studentCounter, dictionary, 1);
+
+        var cohort = store.similarCohort("big-self", "big-course", Map.of("t1", 1.0), 0.3);
+
+        assertEquals(2, cohort.size());
+        assertEquals((0.8 + 0.6 + 0.4 + 0.2) / 4, cohort.meanMastery(List.of("t1", "t2")), 1e-9);
+        assertEquals(0, store.stats().loads());
+        assertEquals(List.of("big-course"), store.stats().oversizedCourses());
+    }
+
+    @Test
+    void servesPersistedQuestionBankAfterRestartWithoutReimport() {
+        String course = """
+                @meta version="1.0.0" course="bank-restart"
+                @term key="t1"
+                @definition term="t1"
+                Первый — термин
+                @chapter id="c1" title="Basics" introduces="t1"
+                learn @t1
+                @question id="q1" chapter="c1" type="single"
+                p
+                @key question="q1"
+                A
+                """;
+        assertTrue(importService.importCourse(course, true).valid());
+        var before = assessmentService.startAssessment("student-3", "bank-restart", "c1");
+
+        var restarted = new AssessmentService(assessmentRepository, knowledgeStore, sessionStore, new QuestionBankBuilder(2000), "lazy");
+        var after = restarted.startAssessment("student-3", "bank-restart", "c1");
+        assertEquals(before.questions(), after.questions());
+    }
+
+    @Test
+    void importsAnswerHistoryIntoKnowledge() {
+        String course = """
+                @meta version="1.0.0" course="history-1"
+                @term key="t1"
+                @definition term="t1"
+                Первый — термин
+                @chapter id="c1" title="Basics" introduces="t1"
+                learn @t1
+                @question id="q1" chapter="c1" type="single"
+                p
+                @key question="q1"
+                A
+                """;
+        assertTrue(importService.importCourse(course, true).valid());
+
+        String csv = """
+                studentId,courseId,questionId,selectedOption,ts
+                hist-1,history-1,assess-t1,Первый,2025-09-01T10:00:00Z
+                hist-1,history-1,assess-t1,"Wrong, answer",2025-09-02T10:00:00Z
+                hist-1,history-1,missing-question,x,2025-09-02T10:00:00Z
+                hist-1,history-1,assess-t1,Первый,not-a-timestamp
+                """;
+        var result = historyImportService.importHistory(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "csv");
+        assertEquals(4, result.records());
+        assertEquals(2, result.scored());
+        assertEquals(1, result.rejected());
+        assertEquals(1, result.malformed());
+        assertEquals(2, result.events());
+
+        var knowledge = assessmentService.profile("hist-1", "history-1").terms().get("t1");
+        assertEquals(0.5, knowledge.masteryScore(), 1e-9);
+        assertEquals(2 / 3.0, knowledge.confidenceScore(), 1e-9);
+    }
+
+    @Test
+    void historyImportCombinesWithLiveKnowledgeInsteadOfOverwritingIt() {
+        String course = """
+                @meta version="1.0.0" course="history-2"
+                @term key="t1"
+                @definition term="t1"
+                Первый — термин
+                @chapter id="c1" title="Basics" introduces="t1"
+                learn @t1
+                @question id="q1" chapter="c1" type="single"
+                p
+                @key question="q1"
+                A
+                """;
+        assertTrue(importService.importCourse(course, true).valid());
+        assessmentRepository.saveKnowledge(List.of(new AssessmentModels.TermKnowledge("hist-2", "history-2", "t1", 1.0, 1 / 3.0)));
+
+        String csv = """
+                hist-2,history-2,assess-t1,wrong,2025-09-01T10:00:00Z
+                """;
+        historyImportService.importHistory(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), "csv");
+
+        var knowledge = assessmentService.profile("hist-2", "history-2").terms().get("t1");
+        assertEquals(0.5, knowledge.masteryScore(), 1e-9);
+        assertEquals(2 / 3.0, knowledge.confidenceScore(), 1e-9);
+    }
+
 }
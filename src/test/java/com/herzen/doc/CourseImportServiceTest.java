@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.util.List;
 import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -89,4 +90,32 @@ class CourseImportServiceTest {
         assertTrue(explain.missingTerms().contains("t2"));
     }
 
+    @Test
+    void reimportReplacesCompiledGraphWithoutStaleEdges() {
+        String first = """
+                @meta version="1.0.0" course="informatics-reimport"
+                @term key="t1"
+                @definition term="t1"
+                Definition
+                @chapter id="ch1" title="Intro" introduces="t1"
+                Intro text
+                @chapter id="ch2" title="Next" requires="ch1" uses="t1"
+                Next text
+                @question id="q1" chapter="ch1" type="single"
+                Prompt
+                @key question="q1"
+                A
+                """;
+        assertTrue(service.importCourse(first, true).valid());
+        assertEquals(List.of("ch1"), service.eligibleChapters("informatics-reimport", Set.of(), Set.of()));
+
+        String second = first.replace("requires=\"ch1\" uses=\"t1\"", "introduces=\"t1\"")
+                .replace("@question", "@chapter id=\"ch0\" title=\"Extra\" requires=\"ch2\" uses=\"t1\"\nExtra text\n@question");
+        assertTrue(service.importCourse(second, true).valid());
+
+        assertEquals(List.of("ch1", "ch2"), service.eligibleChapters("informatics-reimport", Set.of(), Set.of()));
+        var explain = service.explainChapter("informatics-reimport", "ch0", Set.of(), Set.of());
+        assertEquals(List.of("ch2"), explain.missingChapters());
+        assertEquals(List.of("t1"), explain.missingTerms());
+    }
 }
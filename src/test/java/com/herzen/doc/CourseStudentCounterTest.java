@@ -0,0 +1,39 @@
+package com.herzen.doc;
+
+import com.herzen.doc.assessment.AssessmentModels.TermKnowledge;
+import com.herzen.doc.knowledge.CourseStudentCounter;
+import com.herzen.doc.repository.AssessmentJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class CourseStudentCounterTest {
+    @Autowired
+    private AssessmentJdbcRepository assessmentRepository;
+
+    @Test
+    void seedsFromStoredKnowledgeAndCountsEachNewStudentOnce() {
+        assessmentRepository.saveKnowledge(List.of(
+                new TermKnowledge("cnt-1", "counter-course", "t1", 1.0, 1.0),
+                new TermKnowledge("cnt-1", "counter-course", "t2", 0.5, 0.5),
+                new TermKnowledge("cnt-2", "counter-course", "t1", 0.0, 0.3)
+        ));
+        var counter = new CourseStudentCounter(assessmentRepository);
+        assertEquals(2, counter.studentCount("counter-course"));
+
+        counter.recordKnowledge(List.of(new TermKnowledge("cnt-3", "counter-course", "t1", 1.0, 0.3)));
+        assertEquals(3, counter.studentCount("counter-course"));
+
+        counter.recordKnowledge(List.of(
+                new TermKnowledge("cnt-3", "counter-course", "t2", 1.0, 0.3),
+                new TermKnowledge("cnt-1", "counter-course", "t3", 1.0, 0.3)
+        ));
+        assertEquals(3, counter.studentCount("counter-course"));
+        assertEquals(0, counter.studentCount(null));
+    }
+}
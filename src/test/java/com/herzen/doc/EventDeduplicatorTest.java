@@ -0,0 +1,29 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.EventDeduplicator;
+import com.herzen.doc.analytics.EventDeduplicator.Verdict;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class EventDeduplicatorTest {
+    @Test
+    void bloomHitOutsideExactWindowIsCheckedInsteadOfDropped() {
+        EventDeduplicator deduplicator = new EventDeduplicator(true, 120_000, 1, 3_600_000, 6, 1_000, 0.0001);
+        deduplicator.reserve(List.of("evt-a"));
+        deduplicator.commit(List.of("evt-a"), List.of());
+        deduplicator.reserve(List.of("evt-b"));
+        deduplicator.commit(List.of("evt-b"), List.of());
+
+        assertEquals(List.of(Verdict.CHECK), deduplicator.reserve(List.of("evt-a")));
+        assertEquals(List.of(Verdict.IN_FLIGHT), deduplicator.reserve(List.of("evt-a")));
+        assertEquals(0, deduplicator.stats().duplicates());
+
+        deduplicator.confirmStored(List.of("evt-a"));
+        assertEquals(List.of(Verdict.DUPLICATE), deduplicator.reserve(List.of("evt-a")));
+        assertEquals(2, deduplicator.stats().duplicates());
+        assertEquals(1, deduplicator.stats().bloomDuplicates());
+    }
+}
@@ -0,0 +1,76 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.AnalyticsService;
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "analytics.dedup.exact-max-entries=1",
+        "analytics.recompute.enabled=false"
+})
+class IngestDedupFailureTest {
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Autowired
+    private FailingLookupRepository repository;
+
+    @Test
+    void failedStoredIdLookupReleasesReservedIds() {
+        var event = new AnalyticsModels.EventIn("st-df", "course-df", "ch-1", "chapter_open", Instant.now(), "", "v1", "evt-dedup-fail-1");
+        var request = new AnalyticsModels.LearningEventIngestRequest(List.of(event));
+        assertEquals(1, analyticsService.ingest(request).accepted());
+        var filler = new AnalyticsModels.EventIn("st-df", "course-df", "ch-1", "chapter_open", Instant.now(), "", "v1", "evt-dedup-fail-2");
+        assertEquals(1, analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(filler))).accepted());
+        analyticsService.recomputeAggregates();
+
+        repository.failLookups(true);
+        assertThrows(IllegalStateException.class, () -> analyticsService.ingest(request));
+
+        repository.failLookups(false);
+        var retry = analyticsService.ingest(request);
+        assertEquals(0, retry.inFlight());
+        assertEquals(1, retry.duplicates());
+    }
+
+    @TestConfiguration
+    static class FailingLookupConfig {
+        @Bean
+        @Primary
+        FailingLookupRepository failingLookupRepository(JdbcTemplate jdbcTemplate) {
+            return new FailingLookupRepository(jdbcTemplate);
+        }
+    }
+
+    static class FailingLookupRepository extends AnalyticsJdbcRepository {
+        private volatile boolean failLookups;
+
+        FailingLookupRepository(JdbcTemplate jdbcTemplate) {
+            super(jdbcTemplate, 1000);
+        }
+
+        public void failLookups(boolean fail) {
+            failLookups = fail;
+        }
+
+        @Override
+        public Set<String> findStoredEventIds(Collection<String> eventIds) {
+            if (failLookups) throw new IllegalStateException("stored id lookup failed");
+            return super.findStoredEventIds(eventIds);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.AnalyticsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "analytics.ingest.buffer-capacity=1",
+        "analytics.ingest.drain-delay-ms=3600000",
+        "analytics.recompute.enabled=false"
+})
+class IngestOverflowTest {
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Test
+    void eventRejectedOnOverflowIsAcceptedWhenRetried() {
+        var first = new AnalyticsModels.EventIn("st-o", "course-o", "ch-1", "chapter_open", Instant.now(), "", "v1", "evt-overflow-1");
+        var second = new AnalyticsModels.EventIn("st-o", "course-o", "ch-1", "term_click", Instant.now(), "term=x", "v1", "evt-overflow-2");
+
+        var ack = analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(first, second)));
+        assertEquals(1, ack.accepted());
+        assertEquals(1, ack.rejected());
+
+        analyticsService.recomputeAggregates();
+        var retry = analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(first, second)));
+        assertEquals(1, retry.accepted());
+        assertEquals(1, retry.duplicates());
+    }
+}
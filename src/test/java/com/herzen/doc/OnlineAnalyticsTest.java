@@ -0,0 +1,88 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.AnalyticsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {
+        "analytics.aggregation.mode=online",
+        "analytics.bottlenecks.top-k=2",
+        "analytics.recompute.enabled=false"
+})
+class OnlineAnalyticsTest {
+    @Autowired
+    private AnalyticsService analyticsService;
+
+    @Test
+    void updatesAggregatesOnIngestWithoutRecompute() {
+        Instant start = Instant.now();
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-on", "course-on", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_open", start, "", null)
+        )));
+        analyticsService.flushOnlineAggregates();
+
+        var first = analyticsService.overview("st-on", "course-on", "ch-1").aggregates();
+        assertEquals(1, first.size());
+        assertEquals(0.0, first.get(0).learningGain(), 1e-9);
+
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-on", "course-on", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_complete", start.plusSeconds(30), "", null)
+        )));
+        analyticsService.flushOnlineAggregates();
+
+        var second = analyticsService.overview("st-on", "course-on", "ch-1").aggregates().get(0);
+        assertEquals(1.0, second.learningGain(), 1e-9);
+        assertEquals(30.0, second.timeToMasterySeconds(), 1e-9);
+        assertTrue(analyticsService.onlineStats().enabled());
+        assertEquals(0, analyticsService.onlineStats().dirtyKeys());
+    }
+
+    @Test
+    void recomputeDropsOnlyCoveredKeysAndReseedsThemFromTheStoredRow() {
+        Instant start = Instant.now();
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-rs", "course-rs", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_open", start, "", null)
+        )));
+        analyticsService.flushOnlineAggregates();
+        int liveBefore = analyticsService.onlineStats().liveKeys();
+
+        analyticsService.recomputeAggregates();
+        assertTrue(analyticsService.onlineStats().liveKeys() < liveBefore);
+
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-rs", "course-rs", "v1", List.of(
+                new AnalyticsModels.EventIn(null, null, "ch-1", "chapter_complete", start.plusSeconds(45), "", null)
+        )));
+        analyticsService.flushOnlineAggregates();
+
+        var row = analyticsService.overview("st-rs", "course-rs", "ch-1").aggregates().get(0);
+        assertEquals(1.0, row.learningGain(), 1e-9);
+        assertEquals(45.0, row.timeToMasterySeconds(), 1e-9);
+        assertEquals(1.0, row.counters().get("chapter_open"), 1e-9);
+        assertEquals(1.0, row.counters().get("chapter_complete"), 1e-9);
+    }
+
+    @Test
+    void boundedSketchDoesNotReportTermsInflatedByEviction() {
+        analyticsService.bottlenecks("course-sk", false);
+        List<AnalyticsModels.EventIn> clicks = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            clicks.add(new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=alpha", null));
+            clicks.add(new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=beta", null));
+        }
+        clicks.add(new AnalyticsModels.EventIn(null, null, "ch-1", "term_click", Instant.now(), "term=gamma", null));
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest("st-sk", "course-sk", "v1", clicks));
+        analyticsService.flushOnlineAggregates();
+
+        var rows = analyticsService.bottlenecks("course-sk", false).bottlenecks();
+        assertTrue(rows.stream().noneMatch(r -> r.key().equals("gamma")), () -> rows.toString());
+        assertTrue(rows.stream().allMatch(r -> r.occurrences() <= 5), () -> rows.toString());
+    }
+}
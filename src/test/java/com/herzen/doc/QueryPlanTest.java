@@ -0,0 +1,162 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.AggregateScopes;
+import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.LearningEventTypes;
+import com.herzen.doc.repository.AnalyticsJdbcRepository;
+import com.herzen.doc.repository.SchemaMigrations;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+
+import javax.sql.DataSource;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class QueryPlanTest {
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void repositoryQueriesUseIndexesInsteadOfFullScans() {
+        RecordingDataSource recording = new RecordingDataSource(dataSource);
+        AnalyticsJdbcRepository repository = new AnalyticsJdbcRepository(new JdbcTemplate(recording), 100);
+        List<String> students = List.of("s1", "s2");
+        List<String> courses = List.of("c");
+        List<AnalyticsJdbcRepository.ChapterKeyRow> keys = List.of(
+                new AnalyticsJdbcRepository.ChapterKeyRow("s1", "c", "ch-1"),
+                new AnalyticsJdbcRepository.ChapterKeyRow("s2", "c", "ch-2"));
+
+        repository.scanEvents(keys, 100L, row -> {});
+        repository.scanRecommendationCounts(keys, 100L, row -> {});
+        repository.scanCourseEvents("c", List.of(LearningEventTypes.TERM_CLICK, LearningEventTypes.CHAPTER_OPEN), LocalDate.now(), row -> {});
+        repository.loadEventDaysBefore(LocalDate.now());
+        repository.scanEventsOnDay(LocalDate.now(), 100L, row -> {});
+        repository.scanKeyRollups(keys, row -> {});
+        repository.scanCourseRollups("c", row -> {});
+        repository.loadTouchedChapters(0L, 100L, 0L, 100L);
+        repository.loadPrerequisites(courses);
+        repository.queryAggregatesPage(AggregateScopes.STUDENT_CHAPTER, null, "c", null, null, 10);
+        repository.scanAggregates(AggregateScopes.STUDENT_CHAPTER, null, "c", null, row -> {});
+        repository.loadAggregates(AggregateScopes.COURSE_VERSION, "c");
+        repository.scanAggregates(AggregateScopes.COURSE_VERSION, courses, row -> {});
+        repository.scanStudentAggregates(AggregateScopes.STUDENT_CHAPTER, students, row -> {});
+        repository.scanKeyDays(courses, List.of("2024-01-01"), row -> {});
+        repository.loadHistograms("c", null, "session_duration", "2024-01-01", "2024-01-31");
+        repository.findStoredEventIds(List.of("evt-1", "evt-2"));
+        repository.loadStoredAggregates(List.of(new AnalyticsModels.AnalyticsAggregate(
+                AggregateScopes.STUDENT_CHAPTER, "s1", "c", "ch", "v1", 0.0, null, 0.0, 0.0, 0.0,
+                Instant.now(), Map.of(), null, null)));
+
+        assertFalse(recording.statements.isEmpty());
+        recording.statements.forEach(statement -> {
+            String plan = jdbcTemplate.queryForObject("EXPLAIN " + statement.sql(), String.class, statement.args());
+            assertFalse(plan.contains("tableScan"), () -> "full scan in plan:\n" + plan);
+        });
+    }
+
+    @Test
+    void startupDoesNotReapplyRecordedMigrations() {
+        assertEquals(6, jdbcTemplate.queryForObject("SELECT MAX(version) FROM schema_version", Integer.class));
+        assertEquals("TIMESTAMP WITH TIME ZONE", jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'LEARNING_EVENTS' AND column_name = 'TS'", String.class));
+        assertEquals("TIMESTAMP WITH TIME ZONE", jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'ASSESSMENT_SESSIONS' AND column_name = 'STARTED_AT'", String.class));
+        assertEquals("DATE", jdbcTemplate.queryForObject(
+                "SELECT data_type FROM information_schema.columns WHERE table_name = 'ANALYTICS_KEY_DAYS' AND column_name = 'ACTIVITY_DAY'", String.class));
+
+        assertEquals(0, SchemaMigrations.migrate(dataSource));
+        assertEquals(6, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM schema_version", Integer.class));
+    }
+
+    @Test
+    void migrationTypesTimestampsAndExtractsPayloadFieldsOnce() {
+        DataSource fresh = new DriverManagerDataSource("jdbc:h2:mem:migration-check;DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate freshJdbc = new JdbcTemplate(fresh);
+        new ResourceDatabasePopulator(new ClassPathResource("schema.sql")).execute(fresh);
+        freshJdbc.update("INSERT INTO learning_events(student_id, course_id, event_type, ts, payload) VALUES (?,?,?,?,?)",
+                "st-plan", "course-plan", "answer_submit", "2023-06-30T23:59:59.5Z", "session=s-1,answers=4");
+
+        assertEquals(5, SchemaMigrations.migrate(fresh));
+
+        Map<String, Object> row = freshJdbc.queryForMap(
+                "SELECT session_id, answers FROM learning_events WHERE student_id = ?", "st-plan");
+        assertEquals(LocalDate.parse("2023-06-30"), freshJdbc.queryForObject(
+                "SELECT event_day FROM learning_events WHERE student_id = ?", LocalDate.class, "st-plan"));
+        assertEquals("s-1", row.get("SESSION_ID"));
+        assertEquals(4, row.get("ANSWERS"));
+
+        freshJdbc.update("INSERT INTO learning_events(student_id, course_id, event_type, ts, payload) VALUES (?,?,?,CURRENT_TIMESTAMP,?)",
+                "st-late", "course-plan", "answer_submit", "session=s-2");
+        assertEquals(0, SchemaMigrations.migrate(fresh));
+        assertNull(freshJdbc.queryForObject("SELECT session_id FROM learning_events WHERE student_id = ?", String.class, "st-late"));
+        assertEquals(6, freshJdbc.queryForObject("SELECT COUNT(*) FROM schema_version", Integer.class));
+        freshJdbc.execute("DROP ALL OBJECTS");
+    }
+
+    private record RecordedStatement(String sql, Object[] args) {}
+
+    private static final class RecordingDataSource extends DelegatingDataSource {
+        private final List<RecordedStatement> statements = new ArrayList<>();
+
+        private RecordingDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            Connection target = super.getConnection();
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        Object result = invoke(method, target, args);
+                        if (method.getName().equals("prepareStatement")) {
+                            return recording((PreparedStatement) result, (String) args[0]);
+                        }
+                        return result;
+                    });
+        }
+
+        private PreparedStatement recording(PreparedStatement target, String sql) {
+            Map<Integer, Object> params = new TreeMap<>();
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        String name = method.getName();
+                        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+                            params.put(index, name.equals("setNull") ? null : args[1]);
+                        } else if (name.startsWith("execute")) {
+                            statements.add(new RecordedStatement(sql, params.values().toArray()));
+                        }
+                        return invoke(method, target, args);
+                    });
+        }
+
+        private static Object invoke(Method method, Object target, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
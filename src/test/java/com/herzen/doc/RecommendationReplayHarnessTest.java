@@ -0,0 +1,81 @@
+package com.herzen.doc;
+
+import com.herzen.doc.analytics.AnalyticsModels;
+import com.herzen.doc.analytics.AnalyticsService;
+import com.herzen.doc.analytics.LearningEventBuffer;
+import com.herzen.doc.recommendation.RecommendationService;
+import com.herzen.doc.recommendation.RecommenderPlans;
+import com.herzen.doc.replay.RecommendationReplayHarness;
+import com.herzen.doc.replay.ReplayModels;
+import com.herzen.doc.repository.ReplayJdbcRepository;
+import com.herzen.doc.service.CourseImportService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest
+class RecommendationReplayHarnessTest {
+    @Autowired
+    private CourseImportService importService;
+    @Autowired
+    private RecommendationService recommendationService;
+    @Autowired
+    private ReplayJdbcRepository replayRepository;
+    @Autowired
+    private AnalyticsService analyticsService;
+    @Autowired
+    private LearningEventBuffer eventBuffer;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void replaysTwoVersionsWithoutWritingRecommendationLog() {
+        String course = """
+                @meta version="1.0.0" course="replay-1"
+                @term key="t1"
+                @definition term="t1"
+                d1
+                @chapter id="c1" title="Basics" introduces="t1"
+                learn @t1
+                @chapter id="c2" title="Advanced" requires="c1"
+                use @t1
+                @question id="q1" chapter="c1" type="single"
+                p
+                @key question="q1"
+                A
+                """;
+        assertTrue(importService.importCourse(course, true).valid());
+        Instant completedAt = Instant.now().minusSeconds(60);
+        analyticsService.ingest(new AnalyticsModels.LearningEventIngestRequest(List.of(
+                new AnalyticsModels.EventIn("st-r1", "replay-1", "c1", "chapter_complete", completedAt, "", null),
+                new AnalyticsModels.EventIn("st-r2", "replay-1", "c1", "chapter_complete", completedAt, "", null)
+        )));
+        eventBuffer.flush();
+        recommendationService.next("st-r1", "replay-1", Set.of("c1"), RecommenderPlans.BASELINE);
+        recommendationService.next("st-r2", "replay-1", Set.of("c1"), RecommenderPlans.HYBRID);
+
+        RecommendationReplayHarness harness = new RecommendationReplayHarness(recommendationService, replayRepository, null);
+        var requests = harness.loadRequests(0).stream().filter(r -> r.courseId().equals("replay-1")).toList();
+        assertEquals(2, requests.size());
+        Integer loggedBefore = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recommendation_log", Integer.class);
+
+        var reports = harness.replay(requests, List.of(RecommenderPlans.BASELINE, RecommenderPlans.HYBRID), 2);
+
+        assertEquals(loggedBefore, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM recommendation_log", Integer.class));
+        assertEquals(List.of(RecommenderPlans.BASELINE, RecommenderPlans.HYBRID),
+                reports.stream().map(ReplayModels.ReplayReport::recommenderVersion).toList());
+        reports.forEach(report -> {
+            assertEquals(2, report.requests());
+            assertEquals(0, report.failures());
+            assertEquals(1.0, report.agreementWithLogged(), 1e-9);
+            assertEquals(1.0, report.agreementWithSameVersion(), 1e-9);
+        });
+    }
+}
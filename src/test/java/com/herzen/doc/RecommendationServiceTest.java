@@ -79,4 +79,30 @@ class RecommendationServiceTest {
         assertEquals("c2", rec.chapterId());
     }
 
+    @Test
+    void scoresRegisteredVariantsSideBySideAndRejectsUnknownVersion() {
+        String course = """
+                @meta version="1.0.0" course="rec-3"
+                @term key="t1"
+                @definition term="t1"
+                d1
+                @chapter id="c1" title="Basics" introduces="t1"
+                learn @t1
+                @chapter id="c2" title="Advanced" requires="c1"
+                use @t1
+                @question id="q1" chapter="c1" type="single"
+                p
+                @key question="q1"
+                A
+                """;
+        assertTrue(importService.importCourse(course, true).valid());
+
+        var variants = recommendationService.compareVariants("st-3", "rec-3", Set.of("c1"), Set.of());
+        assertTrue(variants.keySet().containsAll(Set.of("baseline", "hybrid")));
+        variants.values().forEach(result -> assertEquals("c2", result.chapterId()));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> recommendationService.next("st-3", "rec-3", Set.of("c1"), "experimental"));
+    }
+
 }